@@ -0,0 +1,390 @@
+package de.tudarmstadt.informatik.lt.pagerank;
+
+/*
+ * #%L
+ * MatrixPageRank
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import org.ujmp.core.Matrix;
+import org.ujmp.core.SparseMatrix;
+
+import java.util.Arrays;
+
+/**
+ * Weighted directed graph in compressed sparse row (CSR) layout. The outgoing edges of node i are stored at the
+ * positions offsets[i] (inclusive) to offsets[i + 1] (exclusive) of the targets and weights arrays.
+ * <p/>
+ * The arrays may be longer than required, so that a graph can be rebuilt in place without reallocating. Only the
+ * first {@link #getVertexCount()} + 1 offsets and the first {@link #getEdgeCount()} targets and weights are valid.
+ */
+public class CsrGraph {
+    int vertexCount;
+    int edgeCount;
+    int[] offsets;
+    int[] targets;
+    double[] weights;
+
+    /**
+     * Creates an empty graph without any nodes.
+     */
+    public CsrGraph() {
+        this(0, new int[1], new int[0], new double[0]);
+    }
+
+    /**
+     * Wraps the given arrays without copying them.
+     *
+     * @param vertexCount number of nodes in the graph
+     * @param offsets     start of each node's edges in targets and weights, followed by the total edge count
+     * @param targets     target node of each edge
+     * @param weights     weight of each edge, e.g. the number of parallel edges between two nodes
+     */
+    public CsrGraph(int vertexCount, int[] offsets, int[] targets, double[] weights) {
+        if (offsets.length < vertexCount + 1) {
+            throw new IllegalArgumentException(String.format("Expected at least %d offsets, got %d", vertexCount + 1,
+                    offsets.length));
+        }
+        this.vertexCount = vertexCount;
+        this.edgeCount = offsets[vertexCount];
+        if (targets.length < edgeCount || weights.length < edgeCount) {
+            throw new IllegalArgumentException(String.format("Expected at least %d targets and weights", edgeCount));
+        }
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    /**
+     * Creates a graph from an adjacency matrix with n rows and n columns, where matrix[i][j] is the number of
+     * directed edges from node i to node j.
+     */
+    public static CsrGraph fromAdjacencyMatrix(int[][] matrix) {
+        return new Builder().addAdjacencyMatrix(matrix).build();
+    }
+
+    /**
+     * Creates a graph from a square UJMP adjacency matrix, visiting only its non-zero entries.
+     */
+    public static CsrGraph fromAdjacencyMatrix(Matrix matrix) {
+        if (!matrix.isSquare()) {
+            throw new IllegalArgumentException(String.format("Expected square adjacency matrix, got %d x %d matrix",
+                    matrix.getRowCount(), matrix.getColumnCount()));
+        }
+        if (matrix.getRowCount() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Can't work with matrices with more than INTEGER.MAX_VALUE rows at the" +
+                    " moment");
+        }
+        Builder builder = new Builder();
+        builder.ensureVertexCount((int) matrix.getRowCount());
+        for (long[] coordinates : matrix.nonZeroCoordinates()) {
+            double weight = matrix.getAsDouble(coordinates);
+            if (weight != 0.0) builder.addEdge((int) coordinates[0], (int) coordinates[1], weight);
+        }
+        return builder.build();
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Creates a UJMP adjacency matrix with the edge weights of this graph, e.g. for
+     * {@link PageRank#forAdjacencyMatrix(SparseMatrix, double, double, int)}.
+     */
+    public SparseMatrix toSparseMatrix() {
+        SparseMatrix matrix = SparseMatrix.Factory.zeros(vertexCount, vertexCount);
+        for (int i = 0; i < vertexCount; i++) {
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                matrix.setAsDouble(weights[e], i, targets[e]);
+            }
+        }
+        return matrix;
+    }
+
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public int[] getTargets() {
+        return targets;
+    }
+
+    public double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Returns the summed weight of all edges leaving the given node.
+     */
+    public double getOutWeight(int node) {
+        double sum = 0.0;
+        for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+            sum += weights[e];
+        }
+        return sum;
+    }
+
+    /**
+     * Creates the reverse graph, in which the edges of node i are the edges entering node i in this graph. The
+     * sources of each node's incoming edges are sorted by node no.
+     */
+    public CsrGraph transpose() {
+        int[] inOffsets = new int[vertexCount + 1];
+        int[] sources = new int[edgeCount];
+        double[] inWeights = new double[edgeCount];
+
+        for (int e = 0; e < edgeCount; e++) {
+            inOffsets[targets[e] + 1]++;
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            inOffsets[i + 1] += inOffsets[i];
+        }
+
+        int[] cursor = Arrays.copyOf(inOffsets, vertexCount);
+        for (int i = 0; i < vertexCount; i++) {
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                int k = cursor[targets[e]]++;
+                sources[k] = i;
+                inWeights[k] = weights[e];
+            }
+        }
+        return new CsrGraph(vertexCount, inOffsets, sources, inWeights);
+    }
+
+    /**
+     * Accumulates weighted edges in primitive buffers and compacts them into a {@link CsrGraph}. Parallel edges are
+     * merged by summing their weights. A builder can be cleared and reused, in which case its buffers are kept.
+     * <p/>
+     * Large buffers merge their parallel edges before they grow, so that a long stream of repeated edges, e.g. the
+     * co-occurrences of a corpus, needs memory in proportion to its distinct edges.
+     */
+    public static class Builder {
+        /**
+         * Smallest buffer whose parallel edges are merged before it grows.
+         */
+        private static final int COMPACT_MIN_CAPACITY = 1 << 16;
+        /**
+         * Largest array length that can be allocated on all common VMs.
+         */
+        private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+        private int vertexCount = 0;
+        private int edgeCount = 0;
+        private int[] sources = new int[16];
+        private int[] targets = new int[16];
+        private double[] weights = new double[16];
+
+        // scratch space for build()
+        private int[] position = new int[0];
+        private int[] order = new int[0];
+
+        /**
+         * Adds a directed edge. Nodes are created implicitly.
+         */
+        public Builder addEdge(int from, int to, double weight) {
+            if (from < 0 || to < 0) throw new IllegalArgumentException("Node indices must not be negative");
+            if (edgeCount == sources.length) grow();
+            sources[edgeCount] = from;
+            targets[edgeCount] = to;
+            weights[edgeCount] = weight;
+            edgeCount++;
+            ensureVertexCount(Math.max(from, to) + 1);
+            return this;
+        }
+
+        /**
+         * Adds the edges of an adjacency matrix with n rows and n columns, where matrix[i][j] is the number of
+         * directed edges from node i to node j. Makes sure the graph has at least n nodes.
+         */
+        public Builder addAdjacencyMatrix(int[][] matrix) {
+            ensureVertexCount(matrix.length);
+            for (int i = 0; i < matrix.length; i++) {
+                if (matrix[i].length != matrix.length) {
+                    throw new IllegalArgumentException(String.format("Expected square adjacency matrix, row %d has " +
+                            "%d columns instead of %d", i, matrix[i].length, matrix.length));
+                }
+                for (int j = 0; j < matrix[i].length; j++) {
+                    if (matrix[i][j] != 0) addEdge(i, j, matrix[i][j]);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Adds all edges of the other builder, keeping parallel edges separate. Makes sure the graph has at least as
+         * many nodes as the other one.
+         */
+        public Builder addAll(Builder other) {
+            return addAll(other, 0);
+        }
+
+        /**
+         * Adds all edges of the other builder with their nodes shifted by the given offset.
+         */
+        Builder addAll(Builder other, int nodeOffset) {
+            final int otherEdgeCount = other.edgeCount;
+            for (int e = 0; e < otherEdgeCount; e++) {
+                addEdge(nodeOffset + other.sources[e], nodeOffset + other.targets[e], other.weights[e]);
+            }
+            return ensureVertexCount(nodeOffset + other.vertexCount);
+        }
+
+        /**
+         * Makes sure the graph has at least the given number of nodes, even if some of them have no edges.
+         */
+        public Builder ensureVertexCount(int count) {
+            vertexCount = Math.max(vertexCount, count);
+            return this;
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        /**
+         * Number of edges buffered so far. Parallel edges count separately unless they have been merged to save memory.
+         */
+        public int getEdgeCount() {
+            return edgeCount;
+        }
+
+        private void grow() {
+            int capacity = sources.length;
+            if (capacity >= COMPACT_MIN_CAPACITY) {
+                compact();
+                // keep the buffers if merging freed a good share of them, or all there is at the limit
+                if (edgeCount <= capacity - (capacity >> 2) || (capacity == MAX_CAPACITY && edgeCount < capacity)) {
+                    return;
+                }
+            }
+            if (capacity == MAX_CAPACITY) {
+                throw new IllegalStateException(String.format("Can't hold more than %d distinct edges",
+                        MAX_CAPACITY));
+            }
+            capacity = capacity < MAX_CAPACITY / 2 ? capacity * 2 : MAX_CAPACITY;
+            sources = Arrays.copyOf(sources, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+        }
+
+        /**
+         * Merges the parallel edges added so far in place. {@link #build(CsrGraph)} still yields the same graph, since
+         * the merged edges keep the order in which their targets first appeared and sum their weights in the same
+         * order.
+         */
+        void compact() {
+            CsrGraph merged = build(new CsrGraph());
+            int k = 0;
+            for (int i = 0; i < merged.vertexCount; i++) {
+                for (int e = merged.offsets[i]; e < merged.offsets[i + 1]; e++) {
+                    sources[k] = i;
+                    targets[k] = merged.targets[e];
+                    weights[k] = merged.weights[e];
+                    k++;
+                }
+            }
+            edgeCount = k;
+        }
+
+        /**
+         * Removes all nodes and edges, keeping the allocated buffers.
+         */
+        public Builder clear() {
+            vertexCount = 0;
+            edgeCount = 0;
+            return this;
+        }
+
+        /**
+         * Creates a new graph from the edges added so far.
+         */
+        public CsrGraph build() {
+            return build(new CsrGraph());
+        }
+
+        /**
+         * Writes the edges added so far into the given graph, reusing its arrays if they are large enough.
+         *
+         * @return the given graph
+         */
+        public CsrGraph build(CsrGraph graph) {
+            int[] offsets = graph.offsets.length >= vertexCount + 1 ? graph.offsets : new int[vertexCount + 1];
+            int[] outTargets = graph.targets.length >= edgeCount ? graph.targets : new int[edgeCount];
+            double[] outWeights = graph.weights.length >= edgeCount ? graph.weights : new double[edgeCount];
+            if (position.length < vertexCount) position = new int[vertexCount];
+            if (order.length < edgeCount) order = new int[edgeCount];
+
+            // counting sort by source: offsets[i + 1] first holds the out-degree of i
+            Arrays.fill(offsets, 0, vertexCount + 1, 0);
+            for (int e = 0; e < edgeCount; e++) {
+                offsets[sources[e] + 1]++;
+            }
+            for (int i = 0; i < vertexCount; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+
+            // order[k] is the k-th edge in source order; the cursor per source lives in position[]
+            System.arraycopy(offsets, 0, position, 0, vertexCount);
+            for (int e = 0; e < edgeCount; e++) {
+                order[position[sources[e]]++] = e;
+            }
+
+            // merge parallel edges row by row; position[t] remembers where target t was last written
+            Arrays.fill(position, 0, vertexCount, -1);
+            int written = 0;
+            int rowStart = 0;
+            for (int i = 0; i < vertexCount; i++) {
+                int rowEnd = offsets[i + 1];
+                offsets[i] = written;
+                int firstOfRow = written;
+                for (int k = rowStart; k < rowEnd; k++) {
+                    int e = order[k];
+                    int target = targets[e];
+                    if (position[target] >= firstOfRow) {
+                        outWeights[position[target]] += weights[e];
+                    } else {
+                        position[target] = written;
+                        outTargets[written] = target;
+                        outWeights[written] = weights[e];
+                        written++;
+                    }
+                }
+                rowStart = rowEnd;
+            }
+            offsets[vertexCount] = written;
+
+            graph.vertexCount = vertexCount;
+            graph.edgeCount = written;
+            graph.offsets = offsets;
+            graph.targets = outTargets;
+            graph.weights = outWeights;
+            return graph;
+        }
+    }
+}
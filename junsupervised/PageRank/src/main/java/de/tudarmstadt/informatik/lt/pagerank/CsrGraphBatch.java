@@ -0,0 +1,141 @@
+package de.tudarmstadt.informatik.lt.pagerank;
+
+/*
+ * #%L
+ * MatrixPageRank
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * Many independent graphs packed into one block-diagonal {@link CsrGraph}. Block b covers the nodes
+ * {@link #getBlockStart(int)} (inclusive) to getBlockStart(b + 1) (exclusive); edges never cross blocks.
+ * <p/>
+ * Used to rank many small graphs, e.g. all sentences of a document, with a single call to
+ * {@link PageRank#forBatch(CsrGraphBatch, double, double, int, PageRankWorkspace)}. A batch can be cleared and
+ * reused, in which case its buffers are kept.
+ */
+public class CsrGraphBatch {
+    private final CsrGraph.Builder builder = new CsrGraph.Builder();
+    private final CsrGraph graph = new CsrGraph();
+    private int[] blockStarts = new int[16];
+    private int blockCount = 0;
+    private boolean built = false;
+
+    /**
+     * Appends a graph given as an adjacency matrix with n rows and n columns, where matrix[i][j] is the number of
+     * directed edges from node i to node j.
+     *
+     * @return the index of the new block
+     */
+    public int addBlock(int[][] matrix) {
+        int start = beginBlock(matrix.length);
+        for (int i = 0; i < matrix.length; i++) {
+            if (matrix[i].length != matrix.length) {
+                throw new IllegalArgumentException(String.format("Expected square adjacency matrix, row %d has %d " +
+                        "columns instead of %d", i, matrix[i].length, matrix.length));
+            }
+            for (int j = 0; j < matrix[i].length; j++) {
+                if (matrix[i][j] != 0) builder.addEdge(start + i, start + j, matrix[i][j]);
+            }
+        }
+        return blockCount - 1;
+    }
+
+    /**
+     * Appends a copy of the given graph.
+     *
+     * @return the index of the new block
+     */
+    public int addBlock(CsrGraph block) {
+        int start = beginBlock(block.getVertexCount());
+        for (int i = 0; i < block.getVertexCount(); i++) {
+            for (int e = block.offsets[i]; e < block.offsets[i + 1]; e++) {
+                builder.addEdge(start + i, start + block.targets[e], block.weights[e]);
+            }
+        }
+        return blockCount - 1;
+    }
+
+    /**
+     * Appends a graph given by the edges added to a builder so far.
+     *
+     * @return the index of the new block
+     */
+    public int addBlock(CsrGraph.Builder block) {
+        builder.addAll(block, beginBlock(block.getVertexCount()));
+        return blockCount - 1;
+    }
+
+    private int beginBlock(int vertexCount) {
+        if (blockCount + 1 == blockStarts.length) {
+            blockStarts = Arrays.copyOf(blockStarts, blockStarts.length * 2);
+        }
+        int start = blockStarts[blockCount];
+        blockCount++;
+        blockStarts[blockCount] = start + vertexCount;
+        builder.ensureVertexCount(start + vertexCount);
+        built = false;
+        return start;
+    }
+
+    /**
+     * Removes all blocks, keeping the allocated buffers.
+     */
+    public CsrGraphBatch clear() {
+        builder.clear();
+        blockCount = 0;
+        built = false;
+        return this;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Returns the index of the first node of the given block in the packed graph. getBlockStart(getBlockCount()) is
+     * the total number of nodes.
+     */
+    public int getBlockStart(int block) {
+        return blockStarts[block];
+    }
+
+    public int getBlockSize(int block) {
+        return blockStarts[block + 1] - blockStarts[block];
+    }
+
+    /**
+     * Returns the packed block-diagonal graph. It is rebuilt in place whenever blocks have been added since the last
+     * call.
+     */
+    public CsrGraph getGraph() {
+        if (!built) {
+            builder.build(graph);
+            built = true;
+        }
+        return graph;
+    }
+}
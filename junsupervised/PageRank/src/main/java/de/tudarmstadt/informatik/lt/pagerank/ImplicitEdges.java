@@ -0,0 +1,220 @@
+package de.tudarmstadt.informatik.lt.pagerank;
+
+/*
+ * #%L
+ * MatrixPageRank
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+
+
+import java.util.Arrays;
+
+/**
+ * Edges of a graph that follow from properties of its nodes instead of being stored one by one. They complement the
+ * explicit edges of a {@link CsrGraph} in
+ * {@link PageRank#forGraph(CsrGraph, ImplicitEdges, double, double, int, int, double[], PageRankWorkspace)}, take
+ * O(n) space and add O(n) work per iteration, although they can stand for O(n^2) edges.
+ * <p/>
+ * A complement partition divides the nodes into classes and links each node to every node of a different class with
+ * the weight of the partition. E.g. with one class per word prefix, all words with unequal prefixes are linked in both
+ * directions. Nodes are in class 0 until they are assigned to another class.
+ * <p/>
+ * A broadcast target receives an edge from every other node, like the teleport vector of PageRank distributes score
+ * to every node, but the edges count towards the out weights of their sources.
+ * <p/>
+ * Edges are only implied between nodes of the same graph: when ranking a {@link CsrGraphBatch}, nodes of different
+ * blocks are never linked, so each block may number its classes from 0. Implicit edges can be cleared and reused, in
+ * which case their buffers are kept. An instance must not be shared between threads.
+ */
+public class ImplicitEdges {
+    private int vertexCount = 0;
+    private int partitionCount = 0;
+    private int[][] classes = new int[0][];
+    private double[] partitionWeights = new double[0];
+    private double[] broadcastWeights = new double[16];
+    private int broadcastTargetCount = 0;
+
+    // scratch space for the sizes and score shares of the classes of one partition, and the shares of the nodes
+    private double[] classSums = new double[16];
+    private double[] shares = new double[16];
+
+    /**
+     * Adds a complement partition with all nodes in class 0, which implies no edges yet.
+     *
+     * @param weight the weight of each edge between nodes of different classes
+     * @return the index of the new partition
+     */
+    public int addPartition(double weight) {
+        if (partitionCount == classes.length) {
+            classes = Arrays.copyOf(classes, partitionCount + 1);
+            partitionWeights = Arrays.copyOf(partitionWeights, partitionCount + 1);
+            classes[partitionCount] = new int[Math.max(16, vertexCount)];
+        } else if (classes[partitionCount].length < vertexCount) {
+            classes[partitionCount] = new int[vertexCount];
+        } else {
+            Arrays.fill(classes[partitionCount], 0, vertexCount, 0);
+        }
+        partitionWeights[partitionCount] = weight;
+        return partitionCount++;
+    }
+
+    /**
+     * Puts a node into a class of the given partition. Nodes are created implicitly.
+     *
+     * @param classId a class no. from 0 to the number of nodes of the graph (exclusive)
+     */
+    public ImplicitEdges setClass(int partition, int node, int classId) {
+        if (partition < 0 || partition >= partitionCount) {
+            throw new IllegalArgumentException(String.format("No partition %d, there are %d partitions", partition,
+                    partitionCount));
+        }
+        if (node < 0 || classId < 0) throw new IllegalArgumentException("Node and class must not be negative");
+        ensureVertexCount(node + 1);
+        if (classSums.length <= classId) classSums = new double[Math.max(classId + 1, classSums.length * 2)];
+        classes[partition][node] = classId;
+        return this;
+    }
+
+    /**
+     * Lets every other node link to the given node with the given weight, which is added to the weight of earlier
+     * calls for the same node. Nodes are created implicitly.
+     */
+    public ImplicitEdges addBroadcastTarget(int node, double weight) {
+        if (node < 0) throw new IllegalArgumentException("Node must not be negative");
+        ensureVertexCount(node + 1);
+        if (broadcastWeights[node] == 0.0) broadcastTargetCount++;
+        broadcastWeights[node] += weight;
+        return this;
+    }
+
+    /**
+     * Makes sure there are at least the given number of nodes. New nodes are in class 0 of every partition and no
+     * broadcast targets.
+     */
+    public ImplicitEdges ensureVertexCount(int count) {
+        if (count <= vertexCount) return this;
+        if (broadcastWeights.length < count) {
+            broadcastWeights = Arrays.copyOf(broadcastWeights, Math.max(count, broadcastWeights.length * 2));
+        }
+        Arrays.fill(broadcastWeights, vertexCount, count, 0.0);
+        for (int p = 0; p < partitionCount; p++) {
+            if (classes[p].length < count) {
+                classes[p] = Arrays.copyOf(classes[p], Math.max(count, classes[p].length * 2));
+            }
+            Arrays.fill(classes[p], vertexCount, count, 0);
+        }
+        if (shares.length < count) shares = new double[Math.max(count, shares.length * 2)];
+        vertexCount = count;
+        return this;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * Removes all nodes, partitions and broadcast targets, keeping the allocated buffers.
+     */
+    public ImplicitEdges clear() {
+        vertexCount = 0;
+        partitionCount = 0;
+        broadcastTargetCount = 0;
+        return this;
+    }
+
+    /**
+     * Adds the summed weight of the implicit edges leaving each of the nodes start (inclusive) to end (exclusive),
+     * which form one graph.
+     */
+    void addOutWeights(double[] outWeights, int start, int end) {
+        for (int p = 0; p < partitionCount; p++) {
+            final int[] classOf = classes[p];
+            countClassSizes(classOf, start, end);
+            for (int i = start; i < end; i++) {
+                outWeights[i] += partitionWeights[p] * (end - start - classSums[classOf[i]]);
+            }
+        }
+
+        if (broadcastTargetCount > 0) {
+            double broadcastWeight = 0.0;
+            for (int i = start; i < end; i++) {
+                broadcastWeight += broadcastWeights[i];
+            }
+            for (int i = start; i < end; i++) {
+                outWeights[i] += broadcastWeight - broadcastWeights[i];
+            }
+        }
+    }
+
+    /**
+     * Adds what the nodes start (inclusive) to end (exclusive) pass on over their implicit edges to the new scores,
+     * like {@link PageRank} does for the explicit edges. Each node receives the shares of all nodes minus the shares
+     * of its own class, so a partition costs three passes over the nodes. A broadcast target receives the shares of
+     * all nodes but its own.
+     */
+    void propagate(int start, int end, double[] oldScores, double[] inverseOutWeights, double dampingFactor,
+                   double[] newScores) {
+        if (partitionCount == 0 && broadcastTargetCount == 0) return;
+
+        double totalShare = 0.0;
+        for (int i = start; i < end; i++) {
+            shares[i] = dampingFactor * oldScores[i] * inverseOutWeights[i];
+            totalShare += shares[i];
+        }
+
+        for (int p = 0; p < partitionCount; p++) {
+            final int[] classOf = classes[p];
+            for (int i = start; i < end; i++) {
+                classSums[classOf[i]] = 0.0;
+            }
+            for (int i = start; i < end; i++) {
+                classSums[classOf[i]] += shares[i];
+            }
+            final double weight = partitionWeights[p];
+            for (int i = start; i < end; i++) {
+                newScores[i] += weight * (totalShare - classSums[classOf[i]]);
+            }
+        }
+
+        if (broadcastTargetCount > 0) {
+            for (int i = start; i < end; i++) {
+                if (broadcastWeights[i] != 0.0) newScores[i] += broadcastWeights[i] * (totalShare - shares[i]);
+            }
+        }
+    }
+
+    private void countClassSizes(int[] classOf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            classSums[classOf[i]] = 0.0;
+        }
+        for (int i = start; i < end; i++) {
+            classSums[classOf[i]] += 1.0;
+        }
+    }
+}
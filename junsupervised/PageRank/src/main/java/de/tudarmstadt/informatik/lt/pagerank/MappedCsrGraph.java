@@ -0,0 +1,544 @@
+package de.tudarmstadt.informatik.lt.pagerank;
+
+/*
+ * #%L
+ * MatrixPageRank
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Weighted directed graph in compressed sparse row layout that is stored in a binary file and memory-mapped instead
+ * of being loaded into the heap. The operating system pages the edges in and out as needed, so the graph may be much
+ * larger than the available memory.
+ * <p/>
+ * The file is little-endian and laid out as follows:
+ * <ol>
+ * <li>header: magic number {@value #MAGIC}, format version, node count n (int), flags (int) and edge count
+ * (long)</li>
+ * <li>n + 1 offsets (long): the outgoing edges of node i are stored at positions offsets[i] to offsets[i + 1]</li>
+ * <li>one target node (int) per edge, padded to a multiple of 8 bytes</li>
+ * <li>one weight (double) per edge, only if the {@link #FLAG_WEIGHTED} flag is set. Otherwise every edge has weight
+ * 1, and parallel edges simply appear several times.</li>
+ * </ol>
+ * Files are written with a {@link Writer} if the out-degrees are known in advance, or with a {@link MergingWriter},
+ * which merges parallel edges into weighted ones. Since Java can not unmap a buffer explicitly, the mapping is
+ * released by the garbage collector some time after the graph has been closed.
+ */
+public class MappedCsrGraph implements Closeable {
+    public final static int MAGIC = 0x43535247;
+    public final static int VERSION = 1;
+    public final static int FLAG_WEIGHTED = 1;
+
+    private final static int HEADER_SIZE = 24;
+
+    // the file is mapped in segments, since a single buffer can not exceed 2 GB. Because every array starts at a
+    // multiple of 8 bytes, no element crosses a segment boundary.
+    private final static int SEGMENT_SHIFT = 30;
+    private final static long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final int vertexCount;
+    private final long edgeCount;
+    private final boolean weighted;
+    private final long targetsStart;
+    private final long weightsStart;
+
+    private MappedCsrGraph(FileChannel channel, FileChannel.MapMode mode, int vertexCount, long edgeCount, boolean
+            weighted) throws IOException {
+        this.channel = channel;
+        this.vertexCount = vertexCount;
+        this.edgeCount = edgeCount;
+        this.weighted = weighted;
+        this.targetsStart = HEADER_SIZE + 8L * (vertexCount + 1);
+        this.weightsStart = targetsStart + align(4L * edgeCount);
+
+        long size = weighted ? weightsStart + 8L * edgeCount : weightsStart;
+        // a writable mapping extends the file as needed
+        if (mode == FileChannel.MapMode.READ_ONLY && channel.size() < size) {
+            throw new IOException(String.format("Expected at least %d bytes for %d nodes and %d edges, file has %d",
+                    size, vertexCount, edgeCount, channel.size()));
+        }
+
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        for (int s = 0; s < segments.length; s++) {
+            long position = (long) s << SEGMENT_SHIFT;
+            segments[s] = channel.map(mode, position, Math.min(SEGMENT_MASK + 1, size - position));
+            segments[s].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Maps a graph file written by a {@link Writer} read-only.
+     *
+     * @throws IOException if the file can not be read or is not a graph file
+     */
+    public static MappedCsrGraph open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) ;
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a graph file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(String.format("Unsupported graph file version %d in %s", header.getInt(4), file));
+            }
+            return new MappedCsrGraph(channel, FileChannel.MapMode.READ_ONLY, header.getInt(8), header.getLong(16),
+                    (header.getInt(12) & FLAG_WEIGHTED) != 0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes an in-memory graph to a file that can be mapped with {@link #open(Path)}.
+     */
+    public static void write(CsrGraph graph, Path file) throws IOException {
+        long[] outDegrees = new long[graph.getVertexCount()];
+        for (int i = 0; i < outDegrees.length; i++) {
+            outDegrees[i] = graph.offsets[i + 1] - graph.offsets[i];
+        }
+        try (Writer writer = new Writer(file, outDegrees, true)) {
+            for (int i = 0; i < outDegrees.length; i++) {
+                for (int e = graph.offsets[i]; e < graph.offsets[i + 1]; e++) {
+                    writer.addEdge(i, graph.targets[e], graph.weights[e]);
+                }
+            }
+        }
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Returns the position of the first outgoing edge of the given node. The edges of the last node end at
+     * getOffset(getVertexCount()).
+     */
+    public long getOffset(int node) {
+        long position = HEADER_SIZE + 8L * node;
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getLong((int) (position & SEGMENT_MASK));
+    }
+
+    public int getTarget(long edge) {
+        long position = targetsStart + 4L * edge;
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getInt((int) (position & SEGMENT_MASK));
+    }
+
+    public double getWeight(long edge) {
+        if (!weighted) return 1.0;
+        long position = weightsStart + 8L * edge;
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getDouble((int) (position & SEGMENT_MASK));
+    }
+
+    public boolean isWeighted() {
+        return weighted;
+    }
+
+    /**
+     * Returns the summed weight of all edges leaving the given node.
+     */
+    public double getOutWeight(int node) {
+        long end = getOffset(node + 1);
+        if (!weighted) return (double) (end - getOffset(node));
+
+        double sum = 0.0;
+        for (long e = getOffset(node); e < end; e++) {
+            sum += getWeight(e);
+        }
+        return sum;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Writes a graph file without holding the edges in memory. The out-degree of every node must be known in advance,
+     * e.g. from a first pass over the data; the edges can then be added in any order. Only the write position of each
+     * node is kept in the heap.
+     */
+    public static class Writer implements Closeable {
+        private final MappedCsrGraph graph;
+        private final long[] cursors;
+
+        /**
+         * Creates or truncates the file and reserves space for the given number of edges per node.
+         *
+         * @param outDegrees number of edges leaving each node
+         * @param weighted   whether to store a weight per edge. If false, all weights passed to
+         *                   {@link #addEdge(int, int, double)} must be 1.
+         */
+        public Writer(Path file, long[] outDegrees, boolean weighted) throws IOException {
+            long edgeCount = 0;
+            cursors = new long[outDegrees.length];
+            for (int i = 0; i < outDegrees.length; i++) {
+                cursors[i] = edgeCount;
+                edgeCount += outDegrees[i];
+            }
+
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption
+                    .TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                graph = new MappedCsrGraph(channel, FileChannel.MapMode.READ_WRITE, outDegrees.length, edgeCount,
+                        weighted);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+
+            ByteBuffer header = graph.segments[0];
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, outDegrees.length);
+            header.putInt(12, weighted ? FLAG_WEIGHTED : 0);
+            header.putLong(16, edgeCount);
+            for (int i = 0; i <= outDegrees.length; i++) {
+                long position = HEADER_SIZE + 8L * i;
+                graph.segments[(int) (position >>> SEGMENT_SHIFT)].putLong((int) (position & SEGMENT_MASK),
+                        i < outDegrees.length ? cursors[i] : edgeCount);
+            }
+        }
+
+        /**
+         * Writes the next edge leaving the given node.
+         *
+         * @throws IllegalStateException if the node already has as many edges as announced
+         */
+        public Writer addEdge(int from, int to, double weight) {
+            long edge = cursors[from];
+            if (edge >= graph.getOffset(from + 1)) {
+                throw new IllegalStateException(String.format("Node %d has more edges than announced", from));
+            }
+            if (!graph.weighted && weight != 1.0) {
+                throw new IllegalArgumentException("Unweighted graph files only support edges of weight 1");
+            }
+            if (to < 0 || to >= cursors.length) {
+                throw new IllegalArgumentException(String.format("Target node %d does not exist", to));
+            }
+
+            long position = graph.targetsStart + 4L * edge;
+            graph.segments[(int) (position >>> SEGMENT_SHIFT)].putInt((int) (position & SEGMENT_MASK), to);
+            if (graph.weighted) {
+                position = graph.weightsStart + 8L * edge;
+                graph.segments[(int) (position >>> SEGMENT_SHIFT)].putDouble((int) (position & SEGMENT_MASK), weight);
+            }
+            cursors[from]++;
+            return this;
+        }
+
+        /**
+         * Flushes the file to disk.
+         *
+         * @throws IllegalStateException if a node has fewer edges than announced
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                for (int i = 0; i < cursors.length; i++) {
+                    if (cursors[i] != graph.getOffset(i + 1)) {
+                        throw new IllegalStateException(String.format("Node %d has %d edges less than announced",
+                                i, graph.getOffset(i + 1) - cursors[i]));
+                    }
+                }
+                for (MappedByteBuffer segment : graph.segments) {
+                    segment.force();
+                }
+            } finally {
+                graph.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a weighted graph file from edges added in any order, without knowing the out-degrees in advance and
+     * without holding all edges in memory. Parallel edges are merged by summing their weights, so the file, and the
+     * I/O of every PageRank iteration on it, grow with the number of distinct edges only.
+     * <p/>
+     * The edges are buffered in a {@link CsrGraph.Builder}, which merges parallel edges as it goes. Whenever the
+     * buffer holds too many distinct edges, they are sorted by source and target and spilled to a temporary run file
+     * next to the graph file. Closing the writer merges the runs into the graph file and deletes them. At most
+     * {@link #MAX_MERGE_FAN_IN} runs are read at once, so if there are more, groups of them are first merged into
+     * larger runs.
+     */
+    public static class MergingWriter implements Closeable {
+        /**
+         * Maximum number of runs merged at once, each of which takes a file handle and a 64 KB read buffer.
+         */
+        static final int MAX_MERGE_FAN_IN = 64;
+
+        private final Path file;
+        private final int maxBufferedEdges;
+        private final CsrGraph.Builder buffer = new CsrGraph.Builder();
+        private final CsrGraph bufferGraph = new CsrGraph();
+        private final List<Path> runs = new ArrayList<>();
+        private int vertexCount = 0;
+        private long[] rowOrder = new long[0];
+
+        /**
+         * @param maxBufferedEdges number of distinct edges to hold in memory before they are spilled to a run file.
+         *                         Each buffered edge takes about 50 bytes of heap.
+         */
+        public MergingWriter(Path file, int maxBufferedEdges) {
+            if (maxBufferedEdges < 1) {
+                throw new IllegalArgumentException("Must buffer at least one edge, got " + maxBufferedEdges);
+            }
+            this.file = file;
+            this.maxBufferedEdges = maxBufferedEdges;
+        }
+
+        /**
+         * Adds a directed edge. Nodes are created implicitly.
+         */
+        public MergingWriter addEdge(int from, int to, double weight) throws IOException {
+            buffer.addEdge(from, to, weight);
+            vertexCount = Math.max(vertexCount, Math.max(from, to) + 1);
+            if (buffer.getEdgeCount() >= maxBufferedEdges) {
+                buffer.compact();
+                // spill unless merging freed enough room to make the next merge worthwhile
+                if (buffer.getEdgeCount() >= maxBufferedEdges / 2) spill();
+            }
+            return this;
+        }
+
+        /**
+         * Makes sure the graph has at least the given number of nodes, even if some of them have no edges.
+         */
+        public MergingWriter ensureVertexCount(int count) {
+            vertexCount = Math.max(vertexCount, count);
+            return this;
+        }
+
+        /**
+         * Number of run files spilled so far.
+         */
+        public int getRunCount() {
+            return runs.size();
+        }
+
+        /**
+         * Writes the buffered edges to a new run file, sorted by source and target.
+         */
+        private void spill() throws IOException {
+            CsrGraph graph = buffer.build(bufferGraph);
+            try (DataOutputStream out = createRun()) {
+                for (int i = 0; i < graph.vertexCount; i++) {
+                    int start = graph.offsets[i];
+                    int length = graph.offsets[i + 1] - start;
+                    if (rowOrder.length < length) rowOrder = new long[Math.max(length, rowOrder.length * 2)];
+
+                    // sort the row by target, carrying each edge's position in the row in the lower half
+                    for (int k = 0; k < length; k++) {
+                        rowOrder[k] = ((long) graph.targets[start + k] << 32) | k;
+                    }
+                    Arrays.sort(rowOrder, 0, length);
+                    for (int k = 0; k < length; k++) {
+                        out.writeInt(i);
+                        out.writeInt((int) (rowOrder[k] >>> 32));
+                        out.writeDouble(graph.weights[start + (int) rowOrder[k]]);
+                    }
+                }
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Creates a new run file next to the graph file, which is deleted when the writer is closed.
+         */
+        private DataOutputStream createRun() throws IOException {
+            Path directory = file.toAbsolutePath().getParent();
+            Path run = Files.createTempFile(directory, file.getFileName().toString() + ".", ".run");
+            runs.add(run);
+            return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16));
+        }
+
+        /**
+         * Merges the oldest runs in groups of {@link #MAX_MERGE_FAN_IN} into new ones until there are at most that many
+         * runs left, so that every edge is rewritten only logarithmically often in the number of runs.
+         */
+        private void reduceRuns() throws IOException {
+            while (runs.size() > MAX_MERGE_FAN_IN) {
+                List<Path> group = new ArrayList<>(runs.subList(0, MAX_MERGE_FAN_IN));
+                try (RunMerger merger = new RunMerger(group); DataOutputStream out = createRun()) {
+                    while (merger.next()) {
+                        out.writeInt(merger.source);
+                        out.writeInt(merger.target);
+                        out.writeDouble(merger.weight);
+                    }
+                }
+                for (Path run : group) {
+                    Files.delete(run);
+                }
+                runs.subList(0, MAX_MERGE_FAN_IN).clear();
+            }
+        }
+
+        /**
+         * Merges the runs into the graph file, summing the weights of parallel edges, and deletes the runs. The runs
+         * are read twice: once to count the distinct edges per node and once to write them.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (buffer.getEdgeCount() > 0) spill();
+                reduceRuns();
+
+                long[] outDegrees = new long[vertexCount];
+                try (RunMerger merger = new RunMerger(runs)) {
+                    while (merger.next()) {
+                        outDegrees[merger.source]++;
+                    }
+                }
+                try (Writer writer = new Writer(file, outDegrees, true); RunMerger merger = new RunMerger(runs)) {
+                    while (merger.next()) {
+                        writer.addEdge(merger.source, merger.target, merger.weight);
+                    }
+                }
+            } finally {
+                for (Path run : runs) {
+                    Files.deleteIfExists(run);
+                }
+                runs.clear();
+            }
+        }
+    }
+
+    /**
+     * Merges sorted run files into one stream of distinct edges, ordered by source and target.
+     */
+    private static class RunMerger implements Closeable {
+        private final List<RunReader> readers = new ArrayList<>();
+        private final PriorityQueue<RunReader> queue;
+        int source;
+        int target;
+        double weight;
+
+        RunMerger(List<Path> runs) throws IOException {
+            queue = new PriorityQueue<>(Math.max(1, runs.size()));
+            try {
+                for (Path run : runs) {
+                    RunReader reader = new RunReader(run);
+                    readers.add(reader);
+                    if (reader.advance()) queue.add(reader);
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Moves to the next distinct edge, summing the weights it has in all runs.
+         *
+         * @return false if all runs are exhausted
+         */
+        boolean next() throws IOException {
+            RunReader reader = queue.poll();
+            if (reader == null) return false;
+            source = reader.source;
+            target = reader.target;
+            weight = reader.weight;
+            if (reader.advance()) queue.add(reader);
+
+            // every run holds an edge at most once
+            while (!queue.isEmpty() && queue.peek().source == source && queue.peek().target == target) {
+                reader = queue.poll();
+                weight += reader.weight;
+                if (reader.advance()) queue.add(reader);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static class RunReader implements Comparable<RunReader>, Closeable {
+        private static final int RECORD_SIZE = 16;
+
+        private final DataInputStream in;
+        private long remaining;
+        int source;
+        int target;
+        double weight;
+
+        RunReader(Path run) throws IOException {
+            remaining = Files.size(run) / RECORD_SIZE;
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            source = in.readInt();
+            target = in.readInt();
+            weight = in.readDouble();
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            if (source != other.source) return Integer.compare(source, other.source);
+            return Integer.compare(target, other.target);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
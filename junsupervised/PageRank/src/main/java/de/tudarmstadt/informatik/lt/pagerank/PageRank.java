@@ -32,6 +32,11 @@ import org.ujmp.core.Matrix;
 import org.ujmp.core.SparseMatrix;
 import org.ujmp.core.util.UJMPSettings;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * Helper class providing an implementation of the PageRank algorithm.
  */
@@ -40,6 +45,27 @@ public class PageRank {
     public final static int DEFAULT_MAX_ITERATIONS = 200;
     public final static double DEFAULT_DAMPING_FACTOR = 0.85;
 
+    // pivots below this value make the direct solver fall back to the power iteration
+    private final static double SINGULAR_PIVOT = 1e-10;
+
+    // chunks per thread of the parallel iteration, so that threads finishing early can steal work
+    private final static int TASKS_PER_THREAD = 8;
+
+    /**
+     * Implementations of the power iteration. Both produce the same scores up to floating point rounding.
+     */
+    public enum Engine {
+        /**
+         * Matrix multiplication on UJMP matrices, see {@link #forAdjacencyMatrix(SparseMatrix, double, double, int)}.
+         */
+        UJMP,
+        /**
+         * In-place iteration over primitive arrays on a {@link CsrGraph}, see
+         * {@link #forGraph(CsrGraph, double, double, int)}.
+         */
+        CSR
+    }
+
     /**
      * Runs PageRank on a graph defined by an adjacency matrix.
      *
@@ -230,6 +256,895 @@ public class PageRank {
         return forAdjacencyMatrix(matrix, DEFAULT_DAMPING_FACTOR, DEFAULT_CONVERGENCE, DEFAULT_MAX_ITERATIONS);
     }
 
+    /**
+     * Runs PageRank on a graph in compressed sparse row layout. Computes the same scores as
+     * {@link #forAdjacencyMatrix(SparseMatrix, double, double, int, boolean)}, but iterates in place over primitive
+     * arrays instead of allocating new matrices in each step.
+     *
+     * @param graph            the graph; edge weights indicate the number of directed edges between two nodes
+     * @param dampingFactor    The probability that the surfer follows the links. If set to 1.0, the surfer will always
+     *                         follow links; if set to 0, the surfer jumps randomly from node to node (degenerate case,
+     *                         since in infinity all nodes get the same PageRank score).
+     * @param convergenceDelta the PageRank algorithm stops when the sum of the score differences to before is below
+     *                         the given value.
+     * @param maxIterations    the maximum number of iterations the algorithm is run.
+     * @param printStep        if true, prints delta at each iteration and prints out additional debug information
+     * @return PageRank scores indexed by node no.
+     */
+    public static double[] forGraph(final CsrGraph graph, final double dampingFactor, double convergenceDelta, int
+            maxIterations, boolean printStep) {
+        if (graph == null || graph.getVertexCount() == 0) return new double[0];
+
+        // a workspace of exactly the right size hands out its score array without copying
+        PageRankWorkspace workspace = new PageRankWorkspace(graph.getVertexCount());
+        initializeScores(workspace.scores, 0, graph.getVertexCount(), null, 0);
+        return iterate(graph, null, dampingFactor, convergenceDelta, maxIterations, 0, printStep, workspace);
+    }
+
+    /**
+     * Runs PageRank on a graph in compressed sparse row layout, using the buffers of the given workspace. Once the
+     * workspace has grown to the size of the graph, no memory is allocated.
+     *
+     * @param workspace buffers to use for the computation
+     * @return the score array of the workspace. Only the first n entries are valid, where n is the number of nodes.
+     * The array is overwritten by the next run on the same workspace.
+     * @see #forGraph(CsrGraph, double, double, int, boolean)
+     */
+    public static double[] forGraph(CsrGraph graph, double dampingFactor, double convergenceDelta, int maxIterations,
+                                    PageRankWorkspace workspace) {
+        return forGraph(graph, dampingFactor, convergenceDelta, maxIterations, null, workspace);
+    }
+
+    /**
+     * Runs PageRank on a graph in compressed sparse row layout, starting from the given scores instead of the uniform
+     * distribution. If the graph differs only slightly from the one the initial scores were computed on, far fewer
+     * iterations are needed until convergence.
+     *
+     * @param initialScores start vector indexed by node no., e.g. the result of a previous run. It is normalized to
+     *                      sum up to 1 and not modified. If null or without positive mass, the uniform distribution is
+     *                      used.
+     * @see #forGraph(CsrGraph, double, double, int, PageRankWorkspace)
+     */
+    public static double[] forGraph(CsrGraph graph, double dampingFactor, double convergenceDelta, int maxIterations,
+                                    double[] initialScores, PageRankWorkspace workspace) {
+        return forGraph(graph, dampingFactor, convergenceDelta, maxIterations, 0, initialScores, workspace);
+    }
+
+    /**
+     * Runs PageRank on a graph in compressed sparse row layout for callers that only need the order of the scores.
+     * Besides the convergence delta, the iteration also stops as soon as the order of the nodes by descending score
+     * has not changed for the given number of iterations and the smallest gap between two neighbouring scores is
+     * larger than the remaining change of the scores. The order is then the same as after a full run, including which
+     * scores are larger than others, while the scores themselves are less precise.
+     * <p/>
+     * Every iteration shrinks the L1 change of the scores at least by the damping factor d, so all remaining
+     * iterations together move two scores towards each other by at most delta * d / (1 - d). This bound is only
+     * sound for d < 1 and without extrapolation, whose steps do not contract, so early stopping is rejected
+     * otherwise. Exactly tied scores never count as settled, so graphs with ties run until convergence.
+     *
+     * @param stableRankingIterations number of iterations the order must stay unchanged before stopping early, or 0
+     *                                to only stop on convergence
+     * @throws IllegalArgumentException if stableRankingIterations is greater than 0, but the damping factor is not
+     *                                  below 1 or the workspace extrapolates
+     * @see #forGraph(CsrGraph, double, double, int, double[], PageRankWorkspace)
+     * @see PageRankWorkspace#getOrder()
+     */
+    public static double[] forGraph(CsrGraph graph, double dampingFactor, double convergenceDelta, int maxIterations,
+                                    int stableRankingIterations, double[] initialScores, PageRankWorkspace workspace) {
+        return forGraph(graph, null, dampingFactor, convergenceDelta, maxIterations, stableRankingIterations,
+                initialScores, workspace);
+    }
+
+    /**
+     * Runs PageRank on a graph in compressed sparse row layout together with edges implied by its nodes, which are
+     * never materialized. The scores are the same as for a graph with all edges stored explicitly, up to rounding.
+     * Graphs with implicit edges are always ranked with the power iteration, even if they are small enough for the
+     * direct solver of the workspace.
+     *
+     * @param implicitEdges further edges between the nodes of the graph, or null
+     * @see #forGraph(CsrGraph, double, double, int, int, double[], PageRankWorkspace)
+     */
+    public static double[] forGraph(CsrGraph graph, ImplicitEdges implicitEdges, double dampingFactor, double
+            convergenceDelta, int maxIterations, int stableRankingIterations, double[] initialScores,
+                                    PageRankWorkspace workspace) {
+        checkStableRankingIterations(stableRankingIterations, dampingFactor, workspace);
+        workspace.iterations = 0;
+        if (graph == null || graph.getVertexCount() == 0) return workspace.getScores();
+        workspace.ensureCapacity(graph.getVertexCount());
+        if (implicitEdges != null) implicitEdges.ensureVertexCount(graph.getVertexCount());
+
+        if (implicitEdges == null && graph.getVertexCount() <= workspace.getDirectSolverMaxNodes() && maxIterations >
+                0) {
+            inverseOutWeights(graph, workspace);
+            if (solveDirectly(graph, 0, graph.getVertexCount(), dampingFactor, workspace)) {
+                return workspace.scores;
+            }
+        }
+
+        initializeScores(workspace.scores, 0, graph.getVertexCount(), initialScores, 0);
+        return iterate(graph, implicitEdges, dampingFactor, convergenceDelta, maxIterations, stableRankingIterations,
+                false, workspace);
+    }
+
+    /**
+     * Expects the start vector in the score array of the workspace.
+     */
+    private static double[] iterate(final CsrGraph graph, final ImplicitEdges implicitEdges, final double
+            dampingFactor, double convergenceDelta, int maxIterations, int stableRankingIterations, boolean printStep,
+                                    PageRankWorkspace workspace) {
+        if (printStep) {
+            System.out.println(String.format("Starting PageRank on %d nodes and %d edges with damping factor %f, " +
+                    "convergence delta %f and %d max iterations", graph.getVertexCount(), graph.getEdgeCount(),
+                    dampingFactor, convergenceDelta, maxIterations));
+        }
+
+        final int vertexCount = graph.getVertexCount();
+        final int[] offsets = graph.getOffsets();
+        final int[] targets = graph.getTargets();
+        final double[] weights = graph.getWeights();
+        final double[] inverseOutWeights = inverseOutWeights(graph, implicitEdges, null, workspace);
+        final double[] denseMatrix = workspace.useDenseKernel(vertexCount, graph.getEdgeCount()) ?
+                workspace.ensureDenseKernelCapacity(vertexCount * vertexCount) : null;
+        if (denseMatrix != null) fillDenseMatrix(graph, 0, vertexCount, denseMatrix, 0);
+
+        double[] oldScores = workspace.scores;
+        double[] newScores = workspace.nextScores;
+        Arrays.fill(newScores, 0, vertexCount, 0.0);
+        final double dampingConstant = (1.0 - dampingFactor) / (double) vertexCount;
+
+        final RankingStability stability = stableRankingIterations > 0 ? workspace.resetRankingStability(0, 0,
+                vertexCount) : null;
+        final int extrapolationInterval = workspace.getExtrapolationInterval();
+        final double[][] olderScores = extrapolationInterval > 0 ? workspace.extrapolationScores() : null;
+
+        // like the matrix version, return the last computed scores (all zero if no iteration ran)
+        double[] scores = newScores;
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            if (extrapolationInterval > 0) {
+                // keep the scores three and two iterations before the next extrapolation
+                int untilExtrapolation = extrapolationInterval - (iterations + 1) % extrapolationInterval;
+                if (untilExtrapolation == 2 || untilExtrapolation == 1) {
+                    System.arraycopy(oldScores, 0, olderScores[2 - untilExtrapolation], 0, vertexCount);
+                }
+            }
+
+            double delta = denseMatrix != null ? denseStep(0, vertexCount, denseMatrix, 0, inverseOutWeights,
+                    workspace.shares, oldScores, newScores, dampingFactor, dampingConstant, implicitEdges) : step(0,
+                    vertexCount, offsets, targets, weights, inverseOutWeights, oldScores, newScores, dampingFactor,
+                    dampingConstant, implicitEdges);
+
+            if (printStep) {
+                System.out.println(String.format("After iteration %d/%d: delta = %f (maxDelta = %f)", iterations + 1,
+                        maxIterations, delta, convergenceDelta));
+            }
+
+            scores = newScores;
+            if (delta < convergenceDelta) {
+                break;
+            }
+            if (stability != null && stability.update(workspace.order, newScores, delta, dampingFactor,
+                    stableRankingIterations)) {
+                break;
+            }
+            if (extrapolationInterval > 0 && iterations > 1 && (iterations + 1) % extrapolationInterval == 0) {
+                extrapolate(newScores, oldScores, olderScores[1], olderScores[0], 0, vertexCount);
+            }
+
+            double[] swap = oldScores;
+            oldScores = newScores;
+            newScores = swap;
+            iterations++;
+        }
+
+        workspace.iterations = Math.min(iterations + 1, maxIterations);
+        workspace.nextScores = scores == oldScores ? newScores : oldScores;
+        workspace.scores = scores;
+        return scores;
+    }
+
+    /**
+     * Runs PageRank on a graph in compressed sparse row layout.
+     *
+     * @see #forGraph(CsrGraph, double, double, int, boolean)
+     */
+    public static double[] forGraph(CsrGraph graph, double dampingFactor, double convergenceDelta, int maxIterations) {
+        return forGraph(graph, dampingFactor, convergenceDelta, maxIterations, false);
+    }
+
+    /**
+     * Runs PageRank on a graph in compressed sparse row layout. Uses a default convergence delta of {@value
+     * #DEFAULT_CONVERGENCE} and a maximum of {@value #DEFAULT_MAX_ITERATIONS} iterations.
+     *
+     * @see #forGraph(CsrGraph, double, double, int, boolean)
+     */
+    public static double[] forGraph(CsrGraph graph, double dampingFactor) {
+        return forGraph(graph, dampingFactor, DEFAULT_CONVERGENCE, DEFAULT_MAX_ITERATIONS, false);
+    }
+
+    /**
+     * Runs PageRank on a graph in compressed sparse row layout, spreading each iteration over the threads of the given
+     * pool. Intended for large graphs such as the co-occurrence graph of a whole corpus; for small graphs the
+     * overhead of the task scheduling outweighs the gain.
+     * <p/>
+     * The scores are pulled along the reversed edges, so every node is written by exactly one task and sums its
+     * incoming shares in the order of their sources, like the sequential iteration does. The delta is summed over the
+     * nodes in order on the calling thread after each step, since a sum split among the tasks would be rounded
+     * differently and could stop the iteration one step earlier or later. The scores are therefore exactly the same
+     * as those of {@link #forGraph(CsrGraph, double, double, int, boolean)}, for any number of threads.
+     *
+     * @param pool the pool running the iterations; its parallelism determines how many chunks the nodes are split
+     *             into
+     * @see #forGraph(CsrGraph, double, double, int, boolean)
+     */
+    public static double[] forGraph(final CsrGraph graph, final double dampingFactor, double convergenceDelta, int
+            maxIterations, boolean printStep, ForkJoinPool pool) {
+        if (graph == null || graph.getVertexCount() == 0) return new double[0];
+
+        if (printStep) {
+            System.out.println(String.format("Starting parallel PageRank on %d nodes and %d edges with damping factor " +
+                    "%f, convergence delta %f, %d max iterations and %d threads", graph.getVertexCount(),
+                    graph.getEdgeCount(), dampingFactor, convergenceDelta, maxIterations, pool.getParallelism()));
+        }
+
+        final int vertexCount = graph.getVertexCount();
+        final PageRankWorkspace workspace = new PageRankWorkspace(vertexCount);
+        final ParallelIteration iteration = new ParallelIteration(graph.transpose(), inverseOutWeights(graph,
+                workspace), dampingFactor, pool.getParallelism() * TASKS_PER_THREAD);
+
+        double[] oldScores = workspace.scores;
+        double[] newScores = workspace.nextScores;
+        Arrays.fill(oldScores, 0, vertexCount, 1.0 / (double) vertexCount);
+        for (int i = 0; i < vertexCount; i++) {
+            iteration.shares[i] = dampingFactor * oldScores[i] * iteration.inverseOutWeights[i];
+        }
+
+        double[] scores = newScores;
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            iteration.oldScores = oldScores;
+            iteration.newScores = newScores;
+            pool.invoke(new PullStep(iteration, 0, iteration.chunkCount()));
+            double delta = delta(0, vertexCount, oldScores, newScores);
+
+            if (printStep) {
+                System.out.println(String.format("After iteration %d/%d: delta = %f (maxDelta = %f)", iterations + 1,
+                        maxIterations, delta, convergenceDelta));
+            }
+
+            scores = newScores;
+            if (delta < convergenceDelta) {
+                break;
+            }
+
+            double[] swap = oldScores;
+            oldScores = newScores;
+            newScores = swap;
+            iteration.swapShares();
+            iterations++;
+        }
+
+        return scores;
+    }
+
+    /**
+     * Runs PageRank on a memory-mapped graph. Only the score vectors are held in memory; the edges are streamed from
+     * the file in storage order once per iteration, so the graph may be larger than the heap.
+     *
+     * @see #forGraph(CsrGraph, double, double, int, boolean)
+     */
+    public static double[] forGraph(final MappedCsrGraph graph, final double dampingFactor, double convergenceDelta,
+                                    int maxIterations, boolean printStep) {
+        if (graph == null || graph.getVertexCount() == 0) return new double[0];
+
+        if (printStep) {
+            System.out.println(String.format("Starting PageRank on %d mapped nodes and %d edges with damping factor " +
+                    "%f, convergence delta %f and %d max iterations", graph.getVertexCount(), graph.getEdgeCount(),
+                    dampingFactor, convergenceDelta, maxIterations));
+        }
+
+        final int vertexCount = graph.getVertexCount();
+        final double[] inverseOutWeights = new double[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            double outWeight = graph.getOutWeight(i);
+            inverseOutWeights[i] = outWeight > 0 ? 1.0 / outWeight : 0.0;
+        }
+
+        double[] oldScores = new double[vertexCount];
+        double[] newScores = new double[vertexCount];
+        Arrays.fill(oldScores, 1.0 / (double) vertexCount);
+        final double dampingConstant = (1.0 - dampingFactor) / (double) vertexCount;
+
+        double[] scores = newScores;
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            Arrays.fill(newScores, dampingConstant);
+            long edge = graph.getOffset(0);
+            for (int i = 0; i < vertexCount; i++) {
+                long end = graph.getOffset(i + 1);
+                double share = dampingFactor * oldScores[i] * inverseOutWeights[i];
+                if (share != 0.0) {
+                    for (; edge < end; edge++) {
+                        newScores[graph.getTarget(edge)] += graph.getWeight(edge) * share;
+                    }
+                }
+                edge = end;
+            }
+
+            double delta = 0.0;
+            for (int i = 0; i < vertexCount; i++) {
+                delta += Math.abs(newScores[i] - oldScores[i]);
+            }
+
+            if (printStep) {
+                System.out.println(String.format("After iteration %d/%d: delta = %f (maxDelta = %f)", iterations + 1,
+                        maxIterations, delta, convergenceDelta));
+            }
+
+            scores = newScores;
+            if (delta < convergenceDelta) {
+                break;
+            }
+
+            double[] swap = oldScores;
+            oldScores = newScores;
+            newScores = swap;
+            iterations++;
+        }
+
+        return scores;
+    }
+
+    /**
+     * Runs PageRank on all blocks of a block-diagonal batch at once. Each block is ranked as if it were passed to
+     * {@link #forGraph(CsrGraph, double, double, int, boolean)} on its own: it starts from its own uniform
+     * distribution, its convergence is measured by its own delta, and it is frozen as soon as it has converged while
+     * the remaining blocks keep iterating.
+     *
+     * @param batch     the graphs to rank
+     * @param workspace buffers to use for the computation. {@link PageRankWorkspace#getBlockIterations()} holds the
+     *                  number of iterations per block afterwards.
+     * @return the score array of the workspace, indexed by node no. in the packed graph. The scores of block b start
+     * at {@link CsrGraphBatch#getBlockStart(int)}. The array is overwritten by the next run on the same workspace.
+     */
+    public static double[] forBatch(CsrGraphBatch batch, final double dampingFactor, double convergenceDelta, int
+            maxIterations, PageRankWorkspace workspace) {
+        return forBatch(batch, dampingFactor, convergenceDelta, maxIterations, null, workspace);
+    }
+
+    /**
+     * Runs PageRank on all blocks of a block-diagonal batch at once, starting each block from the given scores.
+     *
+     * @param initialScores start vector indexed by node no. in the packed graph, e.g. the result of a previous batch
+     *                      run with the same block sizes. Each block is normalized separately, see
+     *                      {@link #forGraph(CsrGraph, double, double, int, double[], PageRankWorkspace)}.
+     * @see #forBatch(CsrGraphBatch, double, double, int, PageRankWorkspace)
+     */
+    public static double[] forBatch(CsrGraphBatch batch, final double dampingFactor, double convergenceDelta, int
+            maxIterations, double[] initialScores, PageRankWorkspace workspace) {
+        return forBatch(batch, dampingFactor, convergenceDelta, maxIterations, 0, initialScores, workspace);
+    }
+
+    /**
+     * Runs PageRank on all blocks of a block-diagonal batch at once, freezing each block as soon as the order of its
+     * scores is settled.
+     *
+     * @param stableRankingIterations number of iterations the order of a block must stay unchanged before it is
+     *                                frozen early, see
+     *                                {@link #forGraph(CsrGraph, double, double, int, int, double[], PageRankWorkspace)}
+     * @throws IllegalArgumentException if stableRankingIterations is greater than 0, but the damping factor is not
+     *                                  below 1 or the workspace extrapolates
+     * @see #forBatch(CsrGraphBatch, double, double, int, double[], PageRankWorkspace)
+     */
+    public static double[] forBatch(CsrGraphBatch batch, final double dampingFactor, double convergenceDelta, int
+            maxIterations, int stableRankingIterations, double[] initialScores, PageRankWorkspace workspace) {
+        return forBatch(batch, null, dampingFactor, convergenceDelta, maxIterations, stableRankingIterations,
+                initialScores, workspace);
+    }
+
+    /**
+     * Runs PageRank on all blocks of a block-diagonal batch at once, including edges implied by the nodes. Implicit
+     * edges never cross blocks, see
+     * {@link #forGraph(CsrGraph, ImplicitEdges, double, double, int, int, double[], PageRankWorkspace)}.
+     *
+     * @param implicitEdges further edges between the nodes of each block, indexed by node no. in the packed graph, or
+     *                      null
+     * @see #forBatch(CsrGraphBatch, double, double, int, int, double[], PageRankWorkspace)
+     */
+    public static double[] forBatch(CsrGraphBatch batch, ImplicitEdges implicitEdges, final double dampingFactor,
+                                    double convergenceDelta, int maxIterations, int stableRankingIterations, double[]
+                                            initialScores, PageRankWorkspace workspace) {
+        checkStableRankingIterations(stableRankingIterations, dampingFactor, workspace);
+        final CsrGraph graph = batch.getGraph();
+        final int blockCount = batch.getBlockCount();
+        final int vertexCount = graph.getVertexCount();
+        final int[] offsets = graph.getOffsets();
+        final int[] targets = graph.getTargets();
+
+        workspace.ensureCapacity(vertexCount);
+        workspace.ensureBlockCapacity(blockCount);
+        workspace.iterations = 0;
+        if (implicitEdges != null) implicitEdges.ensureVertexCount(vertexCount);
+
+        final double[] weights = graph.getWeights();
+        final double[] inverseOutWeights = inverseOutWeights(graph, implicitEdges, batch, workspace);
+        final double[] scores = workspace.scores;
+        final double[] newScores = workspace.nextScores;
+        final int[] blockIterations = workspace.blockIterations;
+        final int[] denseKernelStarts = workspace.denseKernelStarts;
+
+        // blockIterations[b] < 0 marks a block that is still active
+        int activeBlocks = 0;
+        int denseKernelLength = 0;
+        for (int b = 0; b < blockCount; b++) {
+            int start = batch.getBlockStart(b);
+            int size = batch.getBlockSize(b);
+            if (size == 0 || maxIterations <= 0) {
+                Arrays.fill(scores, start, start + size, 0.0);
+                blockIterations[b] = 0;
+            } else if (implicitEdges == null && size <= workspace.getDirectSolverMaxNodes() && solveDirectly(graph,
+                    start, start + size, dampingFactor, workspace)) {
+                blockIterations[b] = 0;
+            } else {
+                initializeScores(scores, start, size, initialScores, start);
+                blockIterations[b] = -1;
+                activeBlocks++;
+                if (stableRankingIterations > 0) workspace.resetRankingStability(b, start, start + size);
+            }
+
+            // the dense matrices of all blocks are packed one after another, -1 marks a sparse block
+            denseKernelStarts[b] = -1;
+            if (blockIterations[b] < 0 && workspace.useDenseKernel(size, offsets[start + size] - offsets[start])) {
+                denseKernelStarts[b] = denseKernelLength;
+                denseKernelLength += size * size;
+            }
+        }
+
+        final double[] denseMatrix = workspace.ensureDenseKernelCapacity(denseKernelLength);
+        for (int b = 0; b < blockCount; b++) {
+            if (denseKernelStarts[b] >= 0) {
+                fillDenseMatrix(graph, batch.getBlockStart(b), batch.getBlockStart(b + 1), denseMatrix,
+                        denseKernelStarts[b]);
+            }
+        }
+
+        final int extrapolationInterval = workspace.getExtrapolationInterval();
+        final double[][] olderScores = extrapolationInterval > 0 ? workspace.extrapolationScores() : null;
+
+        int iterations = 0;
+        while (iterations < maxIterations && activeBlocks > 0) {
+            iterations++;
+            // keep the scores three and two iterations before the next extrapolation
+            final int untilExtrapolation = extrapolationInterval > 0 ? extrapolationInterval - iterations %
+                    extrapolationInterval : 0;
+            final boolean saveScores = untilExtrapolation == 2 || untilExtrapolation == 1;
+            final boolean extrapolate = extrapolationInterval > 0 && iterations > 2 && untilExtrapolation ==
+                    extrapolationInterval;
+            for (int b = 0; b < blockCount; b++) {
+                if (blockIterations[b] >= 0) continue;
+
+                final int start = batch.getBlockStart(b);
+                final int end = batch.getBlockStart(b + 1);
+                if (saveScores) System.arraycopy(scores, start, olderScores[2 - untilExtrapolation], start, end - start);
+                final double dampingConstant = (1.0 - dampingFactor) / (double) (end - start);
+                double delta = denseKernelStarts[b] >= 0 ? denseStep(start, end, denseMatrix, denseKernelStarts[b],
+                        inverseOutWeights, workspace.shares, scores, newScores, dampingFactor, dampingConstant,
+                        implicitEdges) : step(start, end, offsets, targets, weights, inverseOutWeights, scores,
+                        newScores, dampingFactor, dampingConstant, implicitEdges);
+
+                if (delta < convergenceDelta || iterations == maxIterations || (stableRankingIterations > 0 &&
+                        workspace.blockStability[b].update(workspace.order, newScores, delta, dampingFactor,
+                                stableRankingIterations))) {
+                    blockIterations[b] = iterations;
+                    activeBlocks--;
+                } else if (extrapolate) {
+                    extrapolate(newScores, scores, olderScores[1], olderScores[0], start, end);
+                }
+
+                // blocks are independent, so the new scores can be copied back right away
+                System.arraycopy(newScores, start, scores, start, end - start);
+            }
+        }
+
+        workspace.iterations = iterations;
+        return scores;
+    }
+
+    /**
+     * Runs PageRank on each of the given graphs, solving them together as one block-diagonal batch.
+     *
+     * @return PageRank scores for each graph, indexed by node no.
+     * @see #forBatch(CsrGraphBatch, double, double, int, PageRankWorkspace)
+     */
+    public static double[][] forGraphs(List<CsrGraph> graphs, double dampingFactor, double convergenceDelta, int
+            maxIterations) {
+        PageRankWorkspace workspace = new PageRankWorkspace();
+        CsrGraphBatch batch = workspace.clearGraphBatch();
+        for (CsrGraph graph : graphs) {
+            batch.addBlock(graph);
+        }
+
+        double[] scores = forBatch(batch, dampingFactor, convergenceDelta, maxIterations, workspace);
+
+        double[][] outScores = new double[graphs.size()][];
+        for (int b = 0; b < outScores.length; b++) {
+            outScores[b] = Arrays.copyOfRange(scores, batch.getBlockStart(b), batch.getBlockStart(b + 1));
+        }
+        return outScores;
+    }
+
+    /**
+     * Writes the normalized initial scores, or the uniform distribution if there are none, to scores[start] to
+     * scores[start + size - 1].
+     */
+    private static void initializeScores(double[] scores, int start, int size, double[] initialScores, int
+            initialStart) {
+        double sum = 0.0;
+        if (initialScores != null) {
+            for (int i = 0; i < size; i++) {
+                sum += Math.max(0.0, initialScores[initialStart + i]);
+            }
+        }
+
+        // the sum is NaN if any score is NaN
+        if (!(sum > 0.0) || Double.isInfinite(sum)) {
+            Arrays.fill(scores, start, start + size, 1.0 / (double) size);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            scores[start + i] = Math.max(0.0, initialScores[initialStart + i]) / sum;
+        }
+    }
+
+    /**
+     * Applies quadratic extrapolation (Kamvar, Haveliwala, Manning and Golub 2003) to the scores of the nodes start
+     * (inclusive) to end (exclusive). Assuming that the last four iterates are dominated by the limit and the two
+     * slowest decaying eigenvectors, a least squares fit of their differences yields coefficients that cancel those
+     * eigenvectors. This also covers the oscillating component of nearly bipartite graphs without damping, which
+     * a per-score Aitken extrapolation can not remove. The result is clipped at 0 and scaled to the sum of the
+     * current scores; if the fit is degenerate, the scores are left as they are.
+     *
+     * @param current the scores of the last iteration, which are overwritten with the extrapolated scores
+     * @param x2      the scores one iteration before
+     * @param x1      the scores two iterations before
+     * @param x0      the scores three iterations before
+     */
+    private static void extrapolate(double[] current, double[] x2, double[] x1, double[] x0, int start, int end) {
+        // normal equations of the least squares problem [y1 y2] (g1, g2) = -y3 with yj = xj - x0
+        double a11 = 0.0, a12 = 0.0, a22 = 0.0, b1 = 0.0, b2 = 0.0;
+        for (int i = start; i < end; i++) {
+            double y1 = x1[i] - x0[i];
+            double y2 = x2[i] - x0[i];
+            double y3 = current[i] - x0[i];
+            a11 += y1 * y1;
+            a12 += y1 * y2;
+            a22 += y2 * y2;
+            b1 -= y1 * y3;
+            b2 -= y2 * y3;
+        }
+        double determinant = a11 * a22 - a12 * a12;
+        if (!(Math.abs(determinant) > 1e-12 * a11 * a22)) return;
+
+        double gamma1 = (b1 * a22 - b2 * a12) / determinant;
+        double gamma2 = (a11 * b2 - a12 * b1) / determinant;
+        double beta0 = gamma1 + gamma2 + 1.0;
+        double beta1 = gamma2 + 1.0;
+        if (Double.isNaN(beta0) || Double.isInfinite(beta0) || Double.isInfinite(beta1)) return;
+
+        double sum = 0.0;
+        double extrapolatedSum = 0.0;
+        for (int i = start; i < end; i++) {
+            sum += current[i];
+            current[i] = Math.max(0.0, beta0 * x1[i] + beta1 * x2[i] + current[i]);
+            extrapolatedSum += current[i];
+        }
+
+        if (extrapolatedSum > 0.0 && sum > 0.0) {
+            double scale = sum / extrapolatedSum;
+            for (int i = start; i < end; i++) {
+                current[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Solves the linear system (I - dP) x = (1 - d) / n for the nodes start (inclusive) to end (exclusive), which must
+     * not have edges leaving this range, by Gaussian elimination with partial pivoting on the dense matrix buffer of
+     * the workspace. P is the transition matrix, i.e. P[j][i] is the weight of the edge from i to j divided by the out
+     * weight of i. Expects the inverse out weights in the workspace and writes the solution to its score array.
+     * <p/>
+     * Without damping, the system is singular, and the equation of the last node is replaced by the condition that the
+     * scores sum up to 1 like the uniform start vector of the power iteration. This only yields the limit of the power
+     * iteration if no score is lost in nodes without outgoing edges, if there is only one closed set of nodes that the
+     * random surfer can not leave (otherwise the system stays singular), and if that set is aperiodic (otherwise the
+     * power iteration oscillates).
+     *
+     * @return false if the solution is not the limit of the power iteration, in which case the scores are undefined
+     */
+    private static boolean solveDirectly(CsrGraph graph, int start, int end, double dampingFactor, PageRankWorkspace
+            workspace) {
+        final int n = end - start;
+        final double[] inverseOutWeights = workspace.inverseOutWeights;
+        final boolean normalize = dampingFactor >= 1.0;
+        if (normalize) {
+            for (int i = start; i < end; i++) {
+                if (inverseOutWeights[i] == 0.0) return false;
+            }
+        }
+
+        // row-major matrix a with the right-hand side in the scores
+        final double[] a = workspace.ensureDenseCapacity(n);
+        final double[] x = workspace.scores;
+        Arrays.fill(a, 0, n * n, 0.0);
+        for (int i = 0; i < n; i++) {
+            a[i * n + i] = 1.0;
+            x[start + i] = (1.0 - dampingFactor) / (double) n;
+        }
+        final int[] offsets = graph.getOffsets();
+        final int[] targets = graph.getTargets();
+        final double[] weights = graph.getWeights();
+        for (int i = start; i < end; i++) {
+            double share = dampingFactor * inverseOutWeights[i];
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                a[(targets[e] - start) * n + (i - start)] -= weights[e] * share;
+            }
+        }
+        if (normalize) {
+            Arrays.fill(a, (n - 1) * n, n * n, 1.0);
+            x[end - 1] = 1.0;
+        }
+
+        // forward elimination; the diagonal of I - dP is at most 1, so pivots are compared against an absolute bound
+        for (int k = 0; k < n; k++) {
+            int pivot = k;
+            for (int r = k + 1; r < n; r++) {
+                if (Math.abs(a[r * n + k]) > Math.abs(a[pivot * n + k])) pivot = r;
+            }
+            if (Math.abs(a[pivot * n + k]) < SINGULAR_PIVOT) return false;
+            if (pivot != k) {
+                for (int c = k; c < n; c++) {
+                    double swap = a[k * n + c];
+                    a[k * n + c] = a[pivot * n + c];
+                    a[pivot * n + c] = swap;
+                }
+                double swap = x[start + k];
+                x[start + k] = x[start + pivot];
+                x[start + pivot] = swap;
+            }
+
+            double diagonal = a[k * n + k];
+            for (int r = k + 1; r < n; r++) {
+                double factor = a[r * n + k] / diagonal;
+                if (factor == 0.0) continue;
+                for (int c = k + 1; c < n; c++) {
+                    a[r * n + c] -= factor * a[k * n + c];
+                }
+                x[start + r] -= factor * x[start + k];
+            }
+        }
+
+        // back substitution
+        for (int k = n - 1; k >= 0; k--) {
+            double sum = x[start + k];
+            for (int c = k + 1; c < n; c++) {
+                sum -= a[k * n + c] * x[start + c];
+            }
+            x[start + k] = sum / a[k * n + k];
+        }
+
+        for (int i = start; i < end; i++) {
+            if (!(x[i] >= -SINGULAR_PIVOT)) return false;
+        }
+        return !normalize || isAperiodic(graph, start, end, x, workspace);
+    }
+
+    /**
+     * Checks whether the nodes with a positive score, which form the closed set of nodes the scores end up in, are
+     * aperiodic. Breadth-first search assigns each node its distance from the first node of the set; the period is the
+     * greatest common divisor of level(u) + 1 - level(v) over all edges u -> v within the set.
+     */
+    private static boolean isAperiodic(CsrGraph graph, int start, int end, double[] scores, PageRankWorkspace
+            workspace) {
+        final int[] offsets = graph.getOffsets();
+        final int[] targets = graph.getTargets();
+        final int[] levels = workspace.denseLevels;
+        final int[] queue = workspace.order;
+
+        int root = -1;
+        for (int i = start; i < end; i++) {
+            levels[i - start] = -1;
+            if (root < 0 && scores[i] > SINGULAR_PIVOT) root = i;
+        }
+        if (root < 0) return false;
+
+        int head = 0;
+        int tail = 0;
+        levels[root - start] = 0;
+        queue[start + tail++] = root;
+        int period = 0;
+        while (head < tail) {
+            int node = queue[start + head++];
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                int target = targets[e];
+                if (levels[target - start] < 0) {
+                    levels[target - start] = levels[node - start] + 1;
+                    queue[start + tail++] = target;
+                } else {
+                    period = gcd(period, Math.abs(levels[node - start] + 1 - levels[target - start]));
+                }
+            }
+        }
+        return period == 1;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+
+    /**
+     * Computes the inverse of the summed outgoing edge weight of each node. Nodes without outgoing edges get 0 and
+     * lose their score, like in the matrix version.
+     */
+    private static double[] inverseOutWeights(CsrGraph graph, PageRankWorkspace workspace) {
+        final double[] inverseOutWeights = workspace.inverseOutWeights;
+        for (int i = 0; i < graph.getVertexCount(); i++) {
+            double outWeight = graph.getOutWeight(i);
+            inverseOutWeights[i] = outWeight > 0 ? 1.0 / outWeight : 0.0;
+        }
+        return inverseOutWeights;
+    }
+
+    /**
+     * Computes the inverse out weights like {@link #inverseOutWeights(CsrGraph, PageRankWorkspace)}, including the
+     * implicit edges within the whole graph or within each block of the batch.
+     *
+     * @param batch the batch the graph belongs to, or null
+     */
+    private static double[] inverseOutWeights(CsrGraph graph, ImplicitEdges implicitEdges, CsrGraphBatch batch,
+                                              PageRankWorkspace workspace) {
+        if (implicitEdges == null) return inverseOutWeights(graph, workspace);
+
+        final double[] inverseOutWeights = workspace.inverseOutWeights;
+        for (int i = 0; i < graph.getVertexCount(); i++) {
+            inverseOutWeights[i] = graph.getOutWeight(i);
+        }
+        if (batch == null) {
+            implicitEdges.addOutWeights(inverseOutWeights, 0, graph.getVertexCount());
+        } else {
+            for (int b = 0; b < batch.getBlockCount(); b++) {
+                implicitEdges.addOutWeights(inverseOutWeights, batch.getBlockStart(b), batch.getBlockStart(b + 1));
+            }
+        }
+        for (int i = 0; i < graph.getVertexCount(); i++) {
+            inverseOutWeights[i] = inverseOutWeights[i] > 0 ? 1.0 / inverseOutWeights[i] : 0.0;
+        }
+        return inverseOutWeights;
+    }
+
+    /**
+     * Performs one power iteration step for the nodes start (inclusive) to end (exclusive), which must not have
+     * edges leaving this range.
+     *
+     * @param implicitEdges further edges within the range, or null
+     * @return the sum of the absolute score differences
+     */
+    private static double step(int start, int end, int[] offsets, int[] targets, double[] weights, double[]
+            inverseOutWeights, double[] oldScores, double[] newScores, double dampingFactor, double dampingConstant,
+                               ImplicitEdges implicitEdges) {
+        Arrays.fill(newScores, start, end, dampingConstant);
+        for (int i = start; i < end; i++) {
+            double share = dampingFactor * oldScores[i] * inverseOutWeights[i];
+            if (share == 0.0) continue;
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                newScores[targets[e]] += weights[e] * share;
+            }
+        }
+        if (implicitEdges != null) {
+            implicitEdges.propagate(start, end, oldScores, inverseOutWeights, dampingFactor, newScores);
+        }
+        return delta(start, end, oldScores, newScores);
+    }
+
+    /**
+     * Copies the edges of the nodes start (inclusive) to end (exclusive) into a dense row-major matrix starting at
+     * the given position, where row i holds the weights of the edges leaving node start + i.
+     */
+    private static void fillDenseMatrix(CsrGraph graph, int start, int end, double[] matrix, int matrixStart) {
+        final int size = end - start;
+        final int[] offsets = graph.getOffsets();
+        final int[] targets = graph.getTargets();
+        final double[] weights = graph.getWeights();
+        Arrays.fill(matrix, matrixStart, matrixStart + size * size, 0.0);
+        for (int i = start; i < end; i++) {
+            final int row = matrixStart + (i - start) * size - start;
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                matrix[row + targets[e]] += weights[e];
+            }
+        }
+    }
+
+    /**
+     * Performs the same step as {@link #step(int, int, int[], int[], double[], double[], double[], double[], double,
+     * double, ImplicitEdges)} on a dense matrix created by {@link #fillDenseMatrix(CsrGraph, int, int, double[], int)}. Four targets
+     * are computed at once, each summing up its incoming shares in a register in the order of the sources, so the
+     * scores are the same as with the sparse step (missing edges add exactly 0). The independent sums keep the
+     * floating point unit busy, and the matrix is read without indirection.
+     *
+     * @param shares        buffer for the damped score share of each source
+     * @param implicitEdges further edges within the range, or null
+     * @return the sum of the absolute score differences
+     */
+    private static double denseStep(int start, int end, double[] matrix, int matrixStart, double[] inverseOutWeights,
+                                    double[] shares, double[] oldScores, double[] newScores, double dampingFactor,
+                                    double dampingConstant, ImplicitEdges implicitEdges) {
+        final int size = end - start;
+        for (int i = start; i < end; i++) {
+            shares[i] = dampingFactor * oldScores[i] * inverseOutWeights[i];
+        }
+
+        int j = 0;
+        for (; j + 4 <= size; j += 4) {
+            double sum0 = dampingConstant, sum1 = dampingConstant, sum2 = dampingConstant, sum3 = dampingConstant;
+            for (int i = start, k = matrixStart + j; i < end; i++, k += size) {
+                final double share = shares[i];
+                sum0 += matrix[k] * share;
+                sum1 += matrix[k + 1] * share;
+                sum2 += matrix[k + 2] * share;
+                sum3 += matrix[k + 3] * share;
+            }
+            newScores[start + j] = sum0;
+            newScores[start + j + 1] = sum1;
+            newScores[start + j + 2] = sum2;
+            newScores[start + j + 3] = sum3;
+        }
+        for (; j < size; j++) {
+            double sum = dampingConstant;
+            for (int i = start, k = matrixStart + j; i < end; i++, k += size) {
+                sum += matrix[k] * shares[i];
+            }
+            newScores[start + j] = sum;
+        }
+        if (implicitEdges != null) {
+            implicitEdges.propagate(start, end, oldScores, inverseOutWeights, dampingFactor, newScores);
+        }
+        return delta(start, end, oldScores, newScores);
+    }
+
+    private static double delta(int start, int end, double[] oldScores, double[] newScores) {
+        double delta = 0.0;
+        for (int i = start; i < end; i++) {
+            delta += Math.abs(newScores[i] - oldScores[i]);
+        }
+        return delta;
+    }
+
+    /**
+     * Runs PageRank on an adjacency matrix using the given engine.
+     *
+     * @param matrix an adjacency matrix with n rows and n columns, where matrix[i][j] is the number of directed
+     *               edges from node i to node j
+     * @see #forAdjacencyMatrix(SparseMatrix, double, double, int, boolean)
+     * @see #forGraph(CsrGraph, double, double, int, boolean)
+     */
+    public static double[] forAdjacencyMatrix(int[][] matrix, double dampingFactor, double convergenceDelta, int
+            maxIterations, Engine engine) {
+        switch (engine) {
+            case UJMP:
+                return forAdjacencyMatrix(SparseMatrix.Factory.importFromArray(matrix), dampingFactor,
+                        convergenceDelta, maxIterations);
+            case CSR:
+                return forGraph(CsrGraph.fromAdjacencyMatrix(matrix), dampingFactor, convergenceDelta,
+                        maxIterations);
+            default:
+                throw new UnsupportedOperationException("Engine not implemented: " + engine);
+        }
+    }
+
     /**
      * Returns a string representation of the given matrix as a 2D-table.
      */
@@ -254,15 +1169,186 @@ public class PageRank {
         return sb.toString();
     }
 
-    private static class AtomicDouble {
-        private double value = 0.0;
+    /**
+     * Early stopping on a settled ranking relies on every iteration shrinking the change of the scores at least by
+     * the damping factor, which neither holds without damping nor across extrapolation steps.
+     */
+    private static void checkStableRankingIterations(int stableRankingIterations, double dampingFactor,
+                                                     PageRankWorkspace workspace) {
+        if (stableRankingIterations <= 0) return;
+        if (!(dampingFactor < 1.0)) {
+            throw new IllegalArgumentException("Stopping on a settled ranking requires a damping factor below 1, got "
+                    + dampingFactor);
+        }
+        if (workspace.getExtrapolationInterval() > 0) {
+            throw new IllegalArgumentException("Stopping on a settled ranking can't be combined with extrapolation");
+        }
+    }
+
+    /**
+     * Tracks whether the order of the nodes start (inclusive) to end (exclusive) by descending score, with ties broken
+     * by node no., has settled.
+     */
+    static class RankingStability {
+        private int start;
+        private int end;
+        private int stableIterations;
+
+        void reset(int[] order, int start, int end) {
+            this.start = start;
+            this.end = end;
+            stableIterations = 0;
+            for (int i = start; i < end; i++) {
+                order[i] = i;
+            }
+        }
+
+        /**
+         * Re-sorts the order after an iteration and decides whether it can no longer change.
+         *
+         * @param delta         the L1 distance between the scores of this iteration and the previous one
+         * @param dampingFactor the damping factor, which must be below 1
+         * @return true if the order has not changed for the required number of iterations and the smallest gap
+         * between neighbouring scores is larger than the remaining change
+         */
+        boolean update(int[] order, double[] scores, double delta, double dampingFactor, int requiredIterations) {
+            double minGap = sortByScore(order, scores, start, end);
+            stableIterations = minGap < 0 ? 0 : stableIterations + 1;
+            if (stableIterations < requiredIterations) return false;
+
+            // the delta shrinks at least by the damping factor per iteration, so all future deltas add up to at most
+            // delta * d / (1 - d), which bounds how far any two scores can move towards each other. The factor 2 is a
+            // margin for rounding errors.
+            return minGap > 2.0 * delta * dampingFactor / (1.0 - dampingFactor);
+        }
+
+        /**
+         * Insertion sort of order[start] to order[end - 1] by descending score, starting from the previous order,
+         * which is nearly sorted after the first few iterations.
+         *
+         * @return -1 if the order changed, otherwise the smallest difference between neighbouring scores
+         */
+        private static double sortByScore(int[] order, double[] scores, int start, int end) {
+            boolean changed = false;
+            for (int k = start + 1; k < end; k++) {
+                int node = order[k];
+                double score = scores[node];
+                int j = k - 1;
+                while (j >= start && (scores[order[j]] < score || (scores[order[j]] == score && order[j] > node))) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                if (j + 1 != k) {
+                    order[j + 1] = node;
+                    changed = true;
+                }
+            }
+            if (changed) return -1;
 
-        public synchronized void add(double value) {
-            this.value += value;
+            double minGap = Double.POSITIVE_INFINITY;
+            for (int k = start + 1; k < end; k++) {
+                minGap = Math.min(minGap, scores[order[k - 1]] - scores[order[k]]);
+            }
+            return minGap;
         }
+    }
+
+    /**
+     * State shared by the tasks of one parallel PageRank run. The score and share arrays are swapped by the calling
+     * thread between iterations, which happens-before the tasks of the next iteration are started.
+     */
+    private static class ParallelIteration {
+        final int[] inOffsets;
+        final int[] sources;
+        final double[] inWeights;
+        final double[] inverseOutWeights;
+        final double dampingFactor;
+        final double dampingConstant;
+
+        /**
+         * Node ranges processed by one task each, balanced by the number of incoming edges.
+         */
+        final int[] chunkStarts;
 
-        public synchronized double getValue() {
-            return value;
+        double[] oldScores;
+        double[] newScores;
+        // dampingFactor * score / outWeight of each node for the current and the next iteration
+        double[] shares;
+        double[] nextShares;
+
+        ParallelIteration(CsrGraph reverseGraph, double[] inverseOutWeights, double dampingFactor, int chunks) {
+            final int vertexCount = reverseGraph.getVertexCount();
+            this.inOffsets = reverseGraph.getOffsets();
+            this.sources = reverseGraph.getTargets();
+            this.inWeights = reverseGraph.getWeights();
+            this.inverseOutWeights = inverseOutWeights;
+            this.dampingFactor = dampingFactor;
+            this.dampingConstant = (1.0 - dampingFactor) / (double) vertexCount;
+            this.shares = new double[vertexCount];
+            this.nextShares = new double[vertexCount];
+
+            // each node costs one unit plus one per incoming edge
+            chunks = Math.max(1, Math.min(chunks, vertexCount));
+            final long totalWork = (long) vertexCount + reverseGraph.getEdgeCount();
+            chunkStarts = new int[chunks + 1];
+            int node = 0;
+            for (int c = 1; c < chunks; c++) {
+                long work = totalWork * c / chunks;
+                while (node < vertexCount && (long) node + inOffsets[node] < work) node++;
+                chunkStarts[c] = node;
+            }
+            chunkStarts[chunks] = vertexCount;
+        }
+
+        int chunkCount() {
+            return chunkStarts.length - 1;
+        }
+
+        void swapShares() {
+            double[] swap = shares;
+            shares = nextShares;
+            nextShares = swap;
+        }
+    }
+
+    /**
+     * Computes the new scores of a range of chunks. Ranges of more than one chunk are split in halves.
+     */
+    private static class PullStep extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ParallelIteration iteration;
+        private final int fromChunk;
+        private final int toChunk;
+
+        PullStep(ParallelIteration iteration, int fromChunk, int toChunk) {
+            this.iteration = iteration;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (toChunk - fromChunk > 1) {
+                int middle = (fromChunk + toChunk) >>> 1;
+                invokeAll(new PullStep(iteration, fromChunk, middle), new PullStep(iteration, middle, toChunk));
+                return;
+            }
+
+            final int[] inOffsets = iteration.inOffsets;
+            final int[] sources = iteration.sources;
+            final double[] inWeights = iteration.inWeights;
+            final double[] shares = iteration.shares;
+            final double[] newScores = iteration.newScores;
+
+            for (int i = iteration.chunkStarts[fromChunk]; i < iteration.chunkStarts[toChunk]; i++) {
+                double score = iteration.dampingConstant;
+                for (int e = inOffsets[i]; e < inOffsets[i + 1]; e++) {
+                    score += inWeights[e] * shares[sources[e]];
+                }
+                newScores[i] = score;
+                iteration.nextShares[i] = iteration.dampingFactor * score * iteration.inverseOutWeights[i];
+            }
         }
     }
 }
@@ -0,0 +1,276 @@
+package de.tudarmstadt.informatik.lt.pagerank;
+
+/*
+ * #%L
+ * MatrixPageRank
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffers for {@link PageRank#forGraph(CsrGraph, double, double, int, PageRankWorkspace)}. The buffers grow
+ * to the largest graph seen so far and are never shrunk, so that ranking many small graphs in a row does not allocate
+ * once the workspace has warmed up.
+ * <p/>
+ * A workspace must not be shared between threads. Use one instance per thread, e.g. in a {@link ThreadLocal}.
+ */
+public class PageRankWorkspace {
+    /**
+     * Largest graph for which the dense kernel (see {@link #setDenseKernelMinDensity(double)}) is used, which bounds
+     * its matrix to 512 KiB.
+     */
+    public static final int DENSE_KERNEL_MAX_NODES = 256;
+
+    double[] scores;
+    double[] nextScores;
+    double[] inverseOutWeights;
+    double[] shares;
+    int iterations = 0;
+    int[] blockIterations = new int[16];
+    int[] order;
+    PageRank.RankingStability[] blockStability = new PageRank.RankingStability[0];
+
+    private int directSolverMaxNodes = 0;
+    private double[] denseMatrix = new double[0];
+    int[] denseLevels = new int[0];
+
+    private int extrapolationInterval = 0;
+    private double[][] extrapolationScores = {new double[0], new double[0]};
+
+    private double denseKernelMinDensity = 0.5;
+    private double[] denseKernel = new double[0];
+    int[] denseKernelStarts = new int[16];
+
+    private final CsrGraph graph = new CsrGraph();
+    private final CsrGraph.Builder graphBuilder = new CsrGraph.Builder();
+    private final CsrGraphBatch graphBatch = new CsrGraphBatch();
+    private final ImplicitEdges implicitEdges = new ImplicitEdges();
+
+    public PageRankWorkspace() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the number of nodes the workspace can hold before it has to grow
+     */
+    public PageRankWorkspace(int capacity) {
+        scores = new double[capacity];
+        nextScores = new double[capacity];
+        inverseOutWeights = new double[capacity];
+        shares = new double[capacity];
+        order = new int[capacity];
+    }
+
+    /**
+     * Grows the buffers so that they can hold at least the given number of nodes. Existing contents are discarded.
+     */
+    public void ensureCapacity(int vertexCount) {
+        if (scores.length < vertexCount) {
+            int capacity = Math.max(vertexCount, scores.length * 2);
+            scores = new double[capacity];
+            nextScores = new double[capacity];
+            inverseOutWeights = new double[capacity];
+            shares = new double[capacity];
+            order = new int[capacity];
+        }
+    }
+
+    public int getCapacity() {
+        return scores.length;
+    }
+
+    /**
+     * Returns the scores of the last run. Only the first n entries are valid, where n is the node count of the last
+     * graph. The array is overwritten by the next run.
+     */
+    public double[] getScores() {
+        return scores;
+    }
+
+    /**
+     * Number of iterations the last run needed.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Number of iterations each block of the last batch run needed until it converged.
+     */
+    public int[] getBlockIterations() {
+        return blockIterations;
+    }
+
+    /**
+     * Graphs (or blocks of a batch) with at most this many nodes are ranked by solving the PageRank equations directly
+     * with Gaussian elimination instead of the power iteration, which is faster for very small graphs. If the system
+     * is singular, e.g. because the graph is not connected and there is no damping, the power iteration is used
+     * anyway. The iteration count of a directly solved graph is 0.
+     * <p/>
+     * The direct solution is exact, while the power iteration stops within the convergence delta, so the scores
+     * differ slightly. Set to 0 (the default) to always iterate.
+     */
+    public void setDirectSolverMaxNodes(int directSolverMaxNodes) {
+        this.directSolverMaxNodes = directSolverMaxNodes;
+    }
+
+    public int getDirectSolverMaxNodes() {
+        return directSolverMaxNodes;
+    }
+
+    /**
+     * If greater than 0, the power iteration applies quadratic extrapolation every given number of iterations, which
+     * speeds up convergence when the scores approach their limit slowly, e.g. without damping. The extrapolation needs
+     * the last four iterates, so the interval must be at least 3. Set to 0 (the default) to disable extrapolation.
+     */
+    public void setExtrapolationInterval(int extrapolationInterval) {
+        if (extrapolationInterval < 0 || extrapolationInterval == 1 || extrapolationInterval == 2) {
+            throw new IllegalArgumentException("Extrapolation interval must be 0 or at least 3, got " +
+                    extrapolationInterval);
+        }
+        this.extrapolationInterval = extrapolationInterval;
+    }
+
+    public int getExtrapolationInterval() {
+        return extrapolationInterval;
+    }
+
+    /**
+     * Graphs (or blocks of a batch) with at most {@link #DENSE_KERNEL_MAX_NODES} nodes and at least this share of all
+     * possible edges are iterated on a dense copy of their adjacency matrix, which is read without indirection and
+     * computes several scores at once. This pays off for the nearly complete graphs built for sentences, while
+     * sparser graphs are faster with the compressed sparse row layout.
+     * <p/>
+     * Both kernels add up the same products in the same order, so the scores are identical. Defaults to 0.5; set to a
+     * value above 1 to always use the sparse kernel.
+     */
+    public void setDenseKernelMinDensity(double denseKernelMinDensity) {
+        if (!(denseKernelMinDensity >= 0)) {
+            throw new IllegalArgumentException("Dense kernel density must not be negative, got " +
+                    denseKernelMinDensity);
+        }
+        this.denseKernelMinDensity = denseKernelMinDensity;
+    }
+
+    public double getDenseKernelMinDensity() {
+        return denseKernelMinDensity;
+    }
+
+    boolean useDenseKernel(int vertexCount, int edgeCount) {
+        return vertexCount > 0 && vertexCount <= DENSE_KERNEL_MAX_NODES &&
+                edgeCount >= denseKernelMinDensity * vertexCount * vertexCount;
+    }
+
+    double[] ensureDenseKernelCapacity(int length) {
+        if (denseKernel.length < length) {
+            denseKernel = new double[Math.max(length, denseKernel.length * 2)];
+        }
+        return denseKernel;
+    }
+
+    /**
+     * Returns buffers for the scores three and two iterations back, which are only allocated if extrapolation is used.
+     */
+    double[][] extrapolationScores() {
+        if (extrapolationScores[0].length < scores.length) {
+            extrapolationScores[0] = new double[scores.length];
+            extrapolationScores[1] = new double[scores.length];
+        }
+        return extrapolationScores;
+    }
+
+    double[] ensureDenseCapacity(int vertexCount) {
+        if (denseMatrix.length < vertexCount * vertexCount) {
+            denseMatrix = new double[vertexCount * vertexCount];
+            denseLevels = new int[vertexCount];
+        }
+        return denseMatrix;
+    }
+
+    /**
+     * Returns the nodes of the last run that stopped on a settled ranking, sorted by descending score with ties broken
+     * by node no. Only valid if such a stop was requested; in a batch run, the order of block b is found at the
+     * positions of its nodes.
+     */
+    public int[] getOrder() {
+        return order;
+    }
+
+    PageRank.RankingStability resetRankingStability(int block, int start, int end) {
+        if (blockStability.length <= block) {
+            int length = blockStability.length;
+            blockStability = Arrays.copyOf(blockStability, Math.max(block + 1, blockIterations.length));
+            for (int b = length; b < blockStability.length; b++) {
+                blockStability[b] = new PageRank.RankingStability();
+            }
+        }
+        blockStability[block].reset(order, start, end);
+        return blockStability[block];
+    }
+
+    void ensureBlockCapacity(int blockCount) {
+        if (blockIterations.length < blockCount) {
+            blockIterations = new int[Math.max(blockCount, blockIterations.length * 2)];
+            denseKernelStarts = new int[blockIterations.length];
+        }
+    }
+
+    /**
+     * Returns the batch owned by this workspace after clearing it.
+     */
+    public CsrGraphBatch clearGraphBatch() {
+        return graphBatch.clear();
+    }
+
+    /**
+     * Returns the builder owned by this workspace after clearing it.
+     */
+    public CsrGraph.Builder clearGraphBuilder() {
+        return graphBuilder.clear();
+    }
+
+    /**
+     * Returns the implicit edges owned by this workspace after clearing them.
+     */
+    public ImplicitEdges clearImplicitEdges() {
+        return implicitEdges.clear();
+    }
+
+    /**
+     * Compacts the edges of {@link #clearGraphBuilder()} into the graph owned by this workspace, reusing the graph's
+     * arrays. The graph is overwritten by the next call.
+     */
+    public CsrGraph buildGraph() {
+        return buildGraph(graphBuilder);
+    }
+
+    /**
+     * Compacts the edges of the given builder into the graph owned by this workspace, reusing the graph's arrays. The
+     * graph is overwritten by the next call.
+     */
+    public CsrGraph buildGraph(CsrGraph.Builder builder) {
+        return builder.build(graph);
+    }
+}
@@ -0,0 +1,99 @@
+package de.tudarmstadt.informatik.lt.pagerank;
+
+/*
+ * #%L
+ * MatrixPageRank
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CsrGraphTest {
+
+    /**
+     * Returns the edges of the graph keyed by source and target, checking that every pair occurs only once.
+     */
+    static Map<Long, Double> edges(CsrGraph graph) {
+        Map<Long, Double> edges = new HashMap<>();
+        for (int i = 0; i < graph.getVertexCount(); i++) {
+            for (int e = graph.getOffsets()[i]; e < graph.getOffsets()[i + 1]; e++) {
+                assertNull(edges.put(key(i, graph.getTargets()[e]), graph.getWeights()[e]));
+            }
+        }
+        return edges;
+    }
+
+    static long key(int from, int to) {
+        return ((long) from << 32) | to;
+    }
+
+    @Test
+    public void builderMergesParallelEdges() {
+        Random random = new Random(1);
+        // enough edges for the builder to compact its buffer several times
+        CsrGraph.Builder builder = new CsrGraph.Builder();
+        Map<Long, Double> expected = new HashMap<>();
+        for (int i = 0; i < 500000; i++) {
+            int from = random.nextInt(400);
+            int to = random.nextInt(400);
+            double weight = 1 + random.nextInt(4);
+            builder.addEdge(from, to, weight);
+            Double sum = expected.get(key(from, to));
+            expected.put(key(from, to), sum == null ? weight : sum + weight);
+        }
+        builder.ensureVertexCount(450);
+
+        CsrGraph graph = builder.build();
+        assertEquals(450, graph.getVertexCount());
+        assertEquals(expected.size(), graph.getEdgeCount());
+        assertEquals(expected, edges(graph));
+    }
+
+    @Test
+    public void transposeReversesEdges() {
+        Random random = new Random(2);
+        for (int run = 0; run < 50; run++) {
+            int[][] matrix = PageRankTest.randomMatrix(random, 1 + random.nextInt(50), random.nextDouble());
+            CsrGraph graph = CsrGraph.fromAdjacencyMatrix(matrix);
+            Map<Long, Double> transposed = edges(graph.transpose());
+            assertEquals(graph.getEdgeCount(), transposed.size());
+            for (int i = 0; i < matrix.length; i++) {
+                for (int j = 0; j < matrix.length; j++) {
+                    if (matrix[i][j] != 0) {
+                        assertNotNull(transposed.get(key(j, i)));
+                        assertEquals(matrix[i][j], transposed.get(key(j, i)), 0);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package de.tudarmstadt.informatik.lt.pagerank;
+
+/*
+ * #%L
+ * MatrixPageRank
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedCsrGraphTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<Long, Double> edges(MappedCsrGraph graph) {
+        Map<Long, Double> edges = new HashMap<>();
+        for (int i = 0; i < graph.getVertexCount(); i++) {
+            for (long e = graph.getOffset(i); e < graph.getOffset(i + 1); e++) {
+                assertNull(edges.put(CsrGraphTest.key(i, graph.getTarget(e)), graph.getWeight(e)));
+            }
+        }
+        return edges;
+    }
+
+    private static void assertSameGraph(CsrGraph expected, MappedCsrGraph actual) {
+        assertEquals(expected.getVertexCount(), actual.getVertexCount());
+        assertEquals(expected.getEdgeCount(), actual.getEdgeCount());
+        for (int i = 0; i <= expected.getVertexCount(); i++) {
+            assertEquals(expected.getOffsets()[i], actual.getOffset(i));
+        }
+        for (int e = 0; e < expected.getEdgeCount(); e++) {
+            assertEquals(expected.getTargets()[e], actual.getTarget(e));
+            assertEquals(expected.getWeights()[e], actual.getWeight(e), 0);
+        }
+    }
+
+    @Test
+    public void mergingWriterMatchesBuilder() throws IOException {
+        Random random = new Random(1);
+        CsrGraph.Builder builder = new CsrGraph.Builder();
+        Path file = folder.getRoot().toPath().resolve("graph.bin");
+        // spills more runs than are merged at once
+        try (MappedCsrGraph.MergingWriter writer = new MappedCsrGraph.MergingWriter(file, 20)) {
+            for (int i = 0; i < 10000; i++) {
+                int from = random.nextInt(300);
+                int to = random.nextInt(300);
+                double weight = 1 + random.nextInt(4);
+                builder.addEdge(from, to, weight);
+                writer.addEdge(from, to, weight);
+            }
+            assertTrue(writer.getRunCount() > MappedCsrGraph.MergingWriter.MAX_MERGE_FAN_IN);
+        }
+
+        // the run files are gone
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        try (MappedCsrGraph graph = MappedCsrGraph.open(file)) {
+            CsrGraph expected = builder.build();
+            assertEquals(expected.getVertexCount(), graph.getVertexCount());
+            assertEquals(CsrGraphTest.edges(expected), edges(graph));
+        }
+    }
+
+    @Test
+    public void mappedPageRankMatchesInMemory() throws IOException {
+        Random random = new Random(2);
+        for (int run = 0; run < 20; run++) {
+            CsrGraph graph = CsrGraph.fromAdjacencyMatrix(PageRankTest.randomMatrix(random, 1 + random.nextInt(200),
+                    random.nextDouble() * 0.2));
+            Path file = folder.newFile().toPath();
+            MappedCsrGraph.write(graph, file);
+            try (MappedCsrGraph mapped = MappedCsrGraph.open(file)) {
+                assertSameGraph(graph, mapped);
+                for (double dampingFactor : new double[]{0.85, 1.0}) {
+                    assertArrayEquals(PageRank.forGraph(graph, dampingFactor, 1e-12, 1000, false),
+                            PageRank.forGraph(mapped, dampingFactor, 1e-12, 1000, false), 0);
+                }
+            }
+        }
+    }
+}
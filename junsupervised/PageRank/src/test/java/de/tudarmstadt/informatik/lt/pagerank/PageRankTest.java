@@ -0,0 +1,215 @@
+package de.tudarmstadt.informatik.lt.pagerank;
+
+/*
+ * #%L
+ * MatrixPageRank
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the PageRank engines with each other on random graphs. Engines that add up the same products in the same
+ * order must return exactly the same scores; the others must agree within the convergence delta.
+ */
+public class PageRankTest {
+    private static final double CONVERGENCE = 1e-12;
+    private static final int MAX_ITERATIONS = 1000;
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * Returns an adjacency matrix with up to three parallel edges per pair of nodes and at least one edge.
+     */
+    static int[][] randomMatrix(Random random, int vertexCount, double density) {
+        int[][] matrix = new int[vertexCount][vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            for (int j = 0; j < vertexCount; j++) {
+                if (random.nextDouble() < density) matrix[i][j] = 1 + random.nextInt(3);
+            }
+        }
+        matrix[random.nextInt(vertexCount)][random.nextInt(vertexCount)]++;
+        return matrix;
+    }
+
+    private static double[] copy(double[] scores, int vertexCount) {
+        return Arrays.copyOf(scores, vertexCount);
+    }
+
+    @Test
+    public void csrMatchesUjmp() {
+        Random random = new Random(1);
+        for (int run = 0; run < 200; run++) {
+            int[][] matrix = randomMatrix(random, 1 + random.nextInt(30), random.nextDouble());
+            for (double dampingFactor : new double[]{0.85, 1.0}) {
+                double[] expected = PageRank.forAdjacencyMatrix(matrix, dampingFactor, CONVERGENCE, MAX_ITERATIONS,
+                        PageRank.Engine.UJMP);
+                double[] actual = PageRank.forAdjacencyMatrix(matrix, dampingFactor, CONVERGENCE, MAX_ITERATIONS,
+                        PageRank.Engine.CSR);
+                assertArrayEquals(PageRank.matrixToString(matrix), expected, actual, TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void denseKernelMatchesSparseKernel() {
+        Random random = new Random(2);
+        PageRankWorkspace dense = new PageRankWorkspace();
+        dense.setDenseKernelMinDensity(0);
+        PageRankWorkspace sparse = new PageRankWorkspace();
+        sparse.setDenseKernelMinDensity(2);
+        for (int run = 0; run < 200; run++) {
+            CsrGraph graph = CsrGraph.fromAdjacencyMatrix(randomMatrix(random, 1 + random.nextInt(
+                    PageRankWorkspace.DENSE_KERNEL_MAX_NODES), random.nextDouble()));
+            for (double dampingFactor : new double[]{0.85, 1.0}) {
+                double[] expected = copy(PageRank.forGraph(graph, dampingFactor, CONVERGENCE, MAX_ITERATIONS,
+                        sparse), graph.getVertexCount());
+                double[] actual = copy(PageRank.forGraph(graph, dampingFactor, CONVERGENCE, MAX_ITERATIONS, dense),
+                        graph.getVertexCount());
+                assertArrayEquals(expected, actual, 0);
+                assertEquals(sparse.getIterations(), dense.getIterations());
+            }
+        }
+    }
+
+    @Test
+    public void directSolverMatchesPowerIteration() {
+        Random random = new Random(3);
+        PageRankWorkspace direct = new PageRankWorkspace();
+        direct.setDirectSolverMaxNodes(64);
+        for (int run = 0; run < 200; run++) {
+            CsrGraph graph = CsrGraph.fromAdjacencyMatrix(randomMatrix(random, 1 + random.nextInt(64),
+                    random.nextDouble()));
+            double[] expected = PageRank.forGraph(graph, 0.85, CONVERGENCE, MAX_ITERATIONS, false);
+            double[] actual = copy(PageRank.forGraph(graph, 0.85, CONVERGENCE, MAX_ITERATIONS, direct),
+                    graph.getVertexCount());
+            assertArrayEquals(expected, actual, TOLERANCE);
+            assertEquals(0, direct.getIterations());
+        }
+    }
+
+    @Test
+    public void extrapolationMatchesPowerIteration() {
+        Random random = new Random(4);
+        PageRankWorkspace extrapolating = new PageRankWorkspace();
+        extrapolating.setExtrapolationInterval(5);
+        for (int run = 0; run < 200; run++) {
+            CsrGraph graph = CsrGraph.fromAdjacencyMatrix(randomMatrix(random, 1 + random.nextInt(100),
+                    random.nextDouble()));
+            double[] expected = PageRank.forGraph(graph, 0.85, CONVERGENCE, MAX_ITERATIONS, false);
+            double[] actual = copy(PageRank.forGraph(graph, 0.85, CONVERGENCE, MAX_ITERATIONS, extrapolating),
+                    graph.getVertexCount());
+            assertArrayEquals(expected, actual, TOLERANCE);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        Random random = new Random(5);
+        ForkJoinPool[] pools = {new ForkJoinPool(1), new ForkJoinPool(3), new ForkJoinPool(8)};
+        try {
+            for (int run = 0; run < 50; run++) {
+                CsrGraph graph = CsrGraph.fromAdjacencyMatrix(randomMatrix(random, 1 + random.nextInt(500),
+                        random.nextDouble() * 0.1));
+                for (double dampingFactor : new double[]{0.85, 1.0}) {
+                    double[] expected = PageRank.forGraph(graph, dampingFactor, CONVERGENCE, MAX_ITERATIONS, false);
+                    for (ForkJoinPool pool : pools) {
+                        assertArrayEquals(expected, PageRank.forGraph(graph, dampingFactor, CONVERGENCE,
+                                MAX_ITERATIONS, false, pool), 0);
+                    }
+                }
+            }
+        } finally {
+            for (ForkJoinPool pool : pools) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void batchMatchesSingleGraphs() {
+        Random random = new Random(6);
+        PageRankWorkspace workspace = new PageRankWorkspace();
+        CsrGraphBatch batch = new CsrGraphBatch();
+        for (int run = 0; run < 20; run++) {
+            batch.clear();
+            CsrGraph[] graphs = new CsrGraph[1 + random.nextInt(50)];
+            for (int b = 0; b < graphs.length; b++) {
+                graphs[b] = CsrGraph.fromAdjacencyMatrix(randomMatrix(random, 1 + random.nextInt(40),
+                        random.nextDouble()));
+                batch.addBlock(graphs[b]);
+            }
+            for (double dampingFactor : new double[]{0.85, 1.0}) {
+                double[] scores = PageRank.forBatch(batch, dampingFactor, CONVERGENCE, MAX_ITERATIONS, workspace);
+                for (int b = 0; b < graphs.length; b++) {
+                    double[] expected = PageRank.forGraph(graphs[b], dampingFactor, CONVERGENCE, MAX_ITERATIONS,
+                            false);
+                    int start = batch.getBlockStart(b);
+                    assertArrayEquals(expected, Arrays.copyOfRange(scores, start, start + batch.getBlockSize(b)), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void stableRankingMatchesFullRun() {
+        Random random = new Random(7);
+        PageRankWorkspace workspace = new PageRankWorkspace();
+        for (int run = 0; run < 200; run++) {
+            CsrGraph graph = CsrGraph.fromAdjacencyMatrix(randomMatrix(random, 1 + random.nextInt(50),
+                    random.nextDouble()));
+            final double[] scores = PageRank.forGraph(graph, 0.85, CONVERGENCE, MAX_ITERATIONS, false);
+            Integer[] expected = new Integer[graph.getVertexCount()];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = i;
+            }
+            // stable, so ties stay ordered by node no.
+            Arrays.sort(expected, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return -1 * Double.compare(scores[i1], scores[i2]);
+                }
+            });
+
+            PageRank.forGraph(graph, 0.85, CONVERGENCE, MAX_ITERATIONS, 3, null, workspace);
+            int[] order = Arrays.copyOf(workspace.getOrder(), expected.length);
+            for (int p = 0; p < expected.length; p++) {
+                assertEquals(expected[p].intValue(), order[p]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stableRankingRequiresDamping() {
+        CsrGraph graph = CsrGraph.fromAdjacencyMatrix(new int[][]{{0, 1}, {1, 0}});
+        PageRank.forGraph(graph, 1.0, CONVERGENCE, MAX_ITERATIONS, 3, null, new PageRankWorkspace());
+    }
+}
@@ -52,6 +52,9 @@ public class Main {
         parser.accepts("useUniversalRules", "If true, uses universal dependency rules. Requires Universal POS tags " +
                 "(use option unverisalRulesMap to enable the converter).")
                 .withRequiredArg().ofType(Boolean.class).defaultsTo(false);
+        parser.accepts("universalRulesFile", "If set, loads the universal dependency rules from this file instead of " +
+                "using the default ones. Each line holds a blank space separated pair of head and dependent POS.")
+                .withRequiredArg().ofType(String.class);
         parser.accepts("universalPosMap", "path to universal POS mapping as specified in https://github" +
                 ".com/slavpetrov/universal-pos-tags. If you do not specify this option, the converter will not work")
                 .withRequiredArg().ofType(File.class);
@@ -217,6 +220,10 @@ public class Main {
         configurationData.add(options.valueOf("linkFW2FW"));
         configurationData.add(JUnsupervisedParser.PARAM_USE_UNIVERSAL_RULES);
         configurationData.add(options.valueOf("useUniversalRules"));
+        if (options.has("universalRulesFile")) {
+            configurationData.add(JUnsupervisedParser.PARAM_UNIVERSAL_RULES_FILE);
+            configurationData.add(options.valueOf("universalRulesFile"));
+        }
         configurationData.add(JUnsupervisedParser.PARAM_USE_POS_VERB);
         configurationData.add(options.valueOf("usePosVerb"));
         configurationData.add(JUnsupervisedParser.PARAM_NEIGHBOR_LINK_COUNT);
@@ -1,5 +1,7 @@
 package de.tudarmstadt.informatik.lt.sogaardparser.extractor;
 
+import de.tudarmstadt.informatik.lt.pagerank.CsrGraph;
+import de.tudarmstadt.informatik.lt.pagerank.MappedCsrGraph;
 import de.tudarmstadt.informatik.lt.pagerank.PageRank;
 import org.ujmp.core.SparseMatrix;
 
@@ -10,6 +12,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 
 /**
@@ -17,6 +20,11 @@ import java.util.regex.Pattern;
  * words of a language.
  */
 public class KeywordExtractor {
+    /**
+     * Number of distinct co-occurrences {@link #extractOutOfCore(Path, Path, int, Path)} holds in memory before it
+     * spills them to a run file, which takes about 200 MB of heap.
+     */
+    private static final int OUT_OF_CORE_BUFFERED_EDGES = 1 << 22;
 
     /**
      * Extracts function words of a language using TextRank and setence-level co-occurrence
@@ -27,27 +35,67 @@ public class KeywordExtractor {
      * @param numberOfWords number of top function words to extract
      */
     public static void extract(Path inputFile, Path outputFile, int numberOfWords) throws IOException {
+        extract(inputFile, outputFile, numberOfWords, PageRank.Engine.CSR);
+    }
+
+    /**
+     * Extracts function words of a language using TextRank and setence-level co-occurrence
+     * to add edges. Skips tokens containing no letter.
+     *
+     * @param inputFile     plain text, one sentence per line and words separated by blank space (UTF-8)
+     * @param outputFile    a newline-separated list of the top ranked words (UTF-8)
+     * @param numberOfWords number of top function words to extract
+     * @param engine        the PageRank implementation. CSR collects the co-occurrences directly into primitive
+     *                      arrays, UJMP builds a sparse matrix.
+     */
+    public static void extract(Path inputFile, Path outputFile, int numberOfWords, PageRank.Engine engine) throws
+            IOException {
+        extract(inputFile, outputFile, numberOfWords, engine, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Extracts function words of a language using TextRank and setence-level co-occurrence
+     * to add edges. Skips tokens containing no letter.
+     *
+     * @param inputFile     plain text, one sentence per line and words separated by blank space (UTF-8)
+     * @param outputFile    a newline-separated list of the top ranked words (UTF-8)
+     * @param numberOfWords number of top function words to extract
+     * @param engine        the PageRank implementation. CSR collects the co-occurrences directly into primitive
+     *                      arrays, UJMP builds a sparse matrix.
+     * @param threads       number of threads running PageRank with the CSR engine, which only affects the speed: the
+     *                      scores are exactly the same for any number of threads. Ignored by the UJMP engine, which is
+     *                      configured through {@link org.ujmp.core.util.UJMPSettings}.
+     */
+    public static void extract(Path inputFile, Path outputFile, int numberOfWords, PageRank.Engine engine, int
+            threads) throws IOException {
         final Indexer indexer = new Indexer();
-        LinkedList<Edge> edges = new LinkedList<>();
 
-        try (BufferedReader reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8)) {
+        System.out.print("[1/3] extracting co-occurrences");
+        final double[] scores;
+        if (engine == PageRank.Engine.CSR) {
+            CsrGraph.Builder graphBuilder = readGraph(inputFile, indexer);
 
-            Pattern hasLetterPattern = Pattern.compile(".*\\w.*");
+            System.out.println(" [done]");
+            System.out.print("[2/3] building matrix");
 
-            String line = null;
-            System.out.print("[1/3] extracting co-occurrences");
-            while ((line = reader.readLine()) != null) {
-                String[] words = line.split("\\s+");
+            CsrGraph graph = graphBuilder.ensureVertexCount(indexer.size()).build();
+            graphBuilder = null;
 
-                for (int i = 0; i < words.length; i++) {
-                    if (!hasLetterPattern.matcher(words[i]).matches()) continue;
-                    indexer.addToIndex(words[i]);
-                    for (int j = 0; j < i; j++) {
-                        if (!hasLetterPattern.matcher(words[j]).matches()) continue;
-                        edges.add(new Edge(indexer.getIndex(words[i]), indexer.getIndex(words[j])));
-                    }
+            System.out.println(" [done]");
+            System.out.print("[3/3] running PageRank");
+
+            if (threads > 1) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    scores = PageRank.forGraph(graph, 0.85, 0.0001, 20, true, pool);
+                } finally {
+                    pool.shutdown();
                 }
+            } else {
+                scores = PageRank.forGraph(graph, 0.85, 0.0001, 20, true);
             }
+        } else {
+            LinkedList<Edge> edges = readEdges(inputFile, indexer);
 
             System.out.println(" [done]");
             System.out.print("[2/3] building matrix");
@@ -64,26 +112,129 @@ public class KeywordExtractor {
             System.out.println(" [done]");
             System.out.print("[3/3] running PageRank");
 
-            final double[] scores = PageRank.forAdjacencyMatrix(matrix, 0.85, 0.0001, 20, true);
-            System.out.println(" [done]");
+            scores = PageRank.forAdjacencyMatrix(matrix, 0.85, 0.0001, 20, true);
+        }
+        System.out.println(" [done]");
+
+        writeTopWords(indexer, scores, numberOfWords, outputFile);
+    }
+
+    /**
+     * Collects the co-occurrences of the input file as edges in both directions for the CSR engine.
+     */
+    private static CsrGraph.Builder readGraph(Path inputFile, Indexer indexer) throws IOException {
+        final CsrGraph.Builder graphBuilder = new CsrGraph.Builder();
+        readCoOccurrences(inputFile, indexer, new CoOccurrenceHandler() {
+            @Override
+            public void add(int word1, int word2) {
+                graphBuilder.addEdge(word1, word2, 1).addEdge(word2, word1, 1);
+            }
+        });
+        return graphBuilder;
+    }
+
+    /**
+     * Collects the co-occurrences of the input file for the UJMP engine, which adds them in both directions.
+     */
+    private static LinkedList<Edge> readEdges(Path inputFile, Indexer indexer) throws IOException {
+        final LinkedList<Edge> edges = new LinkedList<>();
+        readCoOccurrences(inputFile, indexer, new CoOccurrenceHandler() {
+            @Override
+            public void add(int word1, int word2) {
+                edges.add(new Edge(word1, word2));
+            }
+        });
+        return edges;
+    }
+
+    /**
+     * Extracts function words like {@link #extract(Path, Path, int)}, but keeps the co-occurrence graph on disk
+     * instead of in memory. The co-occurrences are merged into weighted edges in sorted runs, which are spilled next
+     * to the edge file and merged into a memory-mapped graph file. Only the vocabulary, a bounded buffer of
+     * co-occurrences and the PageRank scores are held in the heap. PageRank runs on a single thread.
+     *
+     * @param edgeFile file to write the co-occurrence graph to. It is overwritten if it exists and left on disk
+     *                 afterwards.
+     */
+    public static void extractOutOfCore(Path inputFile, Path outputFile, int numberOfWords, Path edgeFile) throws
+            IOException {
+        final Indexer indexer = new Indexer();
 
-            List<String> entries = indexer.entries();
-            Collections.sort(entries, new Comparator<String>() {
+        System.out.print("[1/4] extracting co-occurrences");
+        try (final MappedCsrGraph.MergingWriter writer = new MappedCsrGraph.MergingWriter(edgeFile,
+                OUT_OF_CORE_BUFFERED_EDGES)) {
+            readCoOccurrences(inputFile, indexer, new CoOccurrenceHandler() {
                 @Override
-                public int compare(String word1, String word2) {
-                    return -1 * Double.compare(scores[indexer.getIndex(word1)], scores[indexer.getIndex(word2)]);
+                public void add(int word1, int word2) throws IOException {
+                    writer.addEdge(word1, word2, 1).addEdge(word2, word1, 1);
                 }
             });
+            writer.ensureVertexCount(indexer.size());
+            System.out.println(" [done]");
+
+            // the runs are merged into the edge file when the writer is closed
+            System.out.print("[2/4] writing edge file");
+        }
+        System.out.println(" [done]");
+
+        System.out.print("[3/4] running PageRank");
+        final double[] scores;
+        try (MappedCsrGraph graph = MappedCsrGraph.open(edgeFile)) {
+            scores = PageRank.forGraph(graph, 0.85, 0.0001, 20, true);
+        }
+        System.out.println(" [done]");
+
+        System.out.print("[4/4] ");
+        writeTopWords(indexer, scores, numberOfWords, outputFile);
+    }
+
+    /**
+     * Reads the sentences of the input file and passes each pair of co-occurring words to the handler, adding them to
+     * the index first. Skips tokens containing no letter.
+     */
+    private static void readCoOccurrences(Path inputFile, Indexer indexer, CoOccurrenceHandler handler) throws
+            IOException {
+        try (BufferedReader reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8)) {
+            Pattern hasLetterPattern = Pattern.compile(".*\\w.*");
 
-            try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
-                for (int i = 0; i < Math.min(entries.size(), numberOfWords); i++) {
-                    writer.write(entries.get(i));
-                    writer.write("\n");
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                String[] words = line.split("\\s+");
+
+                for (int i = 0; i < words.length; i++) {
+                    if (!hasLetterPattern.matcher(words[i]).matches()) continue;
+                    indexer.addToIndex(words[i]);
+                    for (int j = 0; j < i; j++) {
+                        if (!hasLetterPattern.matcher(words[j]).matches()) continue;
+                        handler.add(indexer.getIndex(words[i]), indexer.getIndex(words[j]));
+                    }
                 }
             }
+        }
+    }
 
-            System.out.println("Results written to " + outputFile.toString());
+    private static void writeTopWords(final Indexer indexer, final double[] scores, int numberOfWords, Path
+            outputFile) throws IOException {
+        List<String> entries = indexer.entries();
+        Collections.sort(entries, new Comparator<String>() {
+            @Override
+            public int compare(String word1, String word2) {
+                return -1 * Double.compare(scores[indexer.getIndex(word1)], scores[indexer.getIndex(word2)]);
+            }
+        });
+
+        try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < Math.min(entries.size(), numberOfWords); i++) {
+                writer.write(entries.get(i));
+                writer.write("\n");
+            }
         }
+
+        System.out.println("Results written to " + outputFile.toString());
+    }
+
+    private interface CoOccurrenceHandler {
+        void add(int word1, int word2) throws IOException;
     }
 
     private static class Edge {
@@ -1,5 +1,6 @@
 package de.tudarmstadt.informatik.lt.sogaardparser.extractor;
 
+import de.tudarmstadt.informatik.lt.pagerank.PageRank;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 
@@ -17,6 +18,9 @@ public class Main {
         parser.accepts("input", "file with space-separated words, each sentence on a new line").withRequiredArg().ofType(File.class).required();
         parser.accepts("output", "file to write newline-separated function words to").withRequiredArg().ofType(File.class).required();
         parser.accepts("count", "number of keywords to extract (default: 50)").withRequiredArg().ofType(Integer.class).defaultsTo(50);
+        parser.accepts("engine", "PageRank implementation, CSR or UJMP (default: CSR)").withRequiredArg().ofType(PageRank.Engine.class).defaultsTo(PageRank.Engine.CSR);
+        parser.accepts("threads", "number of threads running PageRank with the CSR engine, without changing the result (default: number of processors)").withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        parser.accepts("edgeFile", "keep the co-occurrence graph in this file instead of in memory (single-threaded, not combinable with --engine or --threads)").withRequiredArg().ofType(File.class);
         parser.accepts("help", "shows this help message").forHelp();
 
         OptionSet options = parser.parse(args);
@@ -26,7 +30,19 @@ public class Main {
             return;
         }
 
+        if (options.has("edgeFile")) {
+            if (options.has("engine") || options.has("threads")) {
+                System.err.println("--edgeFile always runs PageRank on a single thread with the CSR engine and " +
+                        "can't be combined with --engine or --threads");
+                System.exit(1);
+            }
+            KeywordExtractor.extractOutOfCore(((File) options.valueOf("input")).toPath(), ((File) options.valueOf("output")).toPath(),
+                    (Integer) options.valueOf("count"), ((File) options.valueOf("edgeFile")).toPath());
+            return;
+        }
+
         KeywordExtractor.extract(((File) options.valueOf("input")).toPath(), ((File) options.valueOf("output")).toPath(),
-                (Integer) options.valueOf("count"));
+                (Integer) options.valueOf("count"), (PageRank.Engine) options.valueOf("engine"),
+                (Integer) options.valueOf("threads"));
     }
 }
@@ -27,23 +27,30 @@ package de.tudarmstadt.informatik.lt.sogaardparser;
  */
 
 
+import de.tudarmstadt.informatik.lt.pagerank.CsrGraph;
+import de.tudarmstadt.informatik.lt.pagerank.CsrGraphBatch;
+import de.tudarmstadt.informatik.lt.pagerank.ImplicitEdges;
 import de.tudarmstadt.informatik.lt.pagerank.PageRank;
+import de.tudarmstadt.informatik.lt.pagerank.PageRankWorkspace;
 import de.tudarmstadt.informatik.lt.sogaardparser.type.UniversalPOS;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
 import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.component.JCasAnnotator_ImplBase;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
 import org.apache.uima.fit.descriptor.TypeCapability;
+import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.util.Level;
 import org.jobimtext.api.struct.DatabaseThesaurusDatastructure;
 import org.jobimtext.api.struct.Order2;
-import org.ujmp.core.SparseMatrix;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -52,6 +59,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Unsupervised unlabeled dependency parser for natural languages.
@@ -117,6 +127,17 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
             "rules layed out in Petrov, Das and McDonald (2011).", defaultValue = "false")
     private boolean useUniversalRules = false;
 
+    /**
+     * Path to a file with the universal dependency rules to use instead of the default ones if
+     * {@link #PARAM_USE_UNIVERSAL_RULES} is true. Each line holds a blank space separated pair of head and dependent
+     * POS, see {@link UniversalRules#loadRules(java.nio.file.Path)}.
+     */
+    public static final String PARAM_UNIVERSAL_RULES_FILE = "universalRulesFile";
+    @ConfigurationParameter(name = PARAM_UNIVERSAL_RULES_FILE, description = "Path to a file with the universal " +
+            "dependency rules to use instead of the default ones. Each line holds a blank space separated pair of " +
+            "head and dependent POS.", mandatory = false)
+    private String universalRulesFile;
+
     public static final String PARAM_TWO_PASS = "twoPass";
     @ConfigurationParameter(name = PARAM_TWO_PASS, description = "If true, will use the dependencies from the first " +
             "run as additional links for another round of page rank.", defaultValue = "false")
@@ -130,6 +151,16 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
             "should be added from dependent to governor.", defaultValue = "2")
     private int twoPassLinkWeight = 2;
 
+    /**
+     * If two pass is enabled, whether the second PageRank run starts from the scores of the first run instead of the
+     * uniform distribution. Only supported by the CSR engine.
+     */
+    public static final String PARAM_TWO_PASS_WARM_START = "twoPassWarmStart";
+    @ConfigurationParameter(name = PARAM_TWO_PASS_WARM_START, description = "If two pass is enabled, whether the " +
+            "second PageRank run starts from the scores of the first run instead of the uniform distribution. Only " +
+            "supported by the CSR engine.", defaultValue = "false")
+    private boolean twoPassWarmStart = false;
+
     /**
      * Path to a newline-separated list of function words.
      */
@@ -147,6 +178,9 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
     /**
      * Path to a newline-separated list of multi-word expressions in the following format:
      * # of tokens |tab| space separated tokens |tab| druid score |tab| other values
+     * <p/>
+     * Large lists can be converted with {@link MWELexiconConverter} into a binary file, which can be given here as
+     * well and is memory-mapped instead of read.
      */
     public static final String PARAM_MWE_FILE = "mweFile";
     @ConfigurationParameter(name = PARAM_MWE_FILE, description = "Path to a newline-separated list of multi-word " +
@@ -209,6 +243,17 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
             "looking up DT entries", defaultValue = "true")
     private boolean dtUseLemma = true;
 
+    /**
+     * Maximum number of terms whose similar terms are cached if dtRemoveSimilar is set to true. The cache is shared by
+     * all parser instances using the same thesaurus configuration and drops the least recently used terms when full.
+     */
+    public static final String PARAM_DT_CACHE_SIZE = "dtCacheSize";
+    @ConfigurationParameter(name = PARAM_DT_CACHE_SIZE, description = "Maximum number of terms whose similar terms " +
+            "are cached if dtRemoveSimilar is set to true. The cache is shared by all parser instances using the " +
+            "same thesaurus configuration and drops the least recently used terms when full.", defaultValue =
+            "100000")
+    private int dtCacheSize = 100000;
+
     public static final String PARAM_LINK_SAME_POS_TAG = "linkSamePosTag";
     @ConfigurationParameter(name = PARAM_LINK_SAME_POS_TAG, description = "Whether to link neighboring words with the" +
             " same 2 letter POS tag prefix", defaultValue = "true")
@@ -220,6 +265,72 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
             defaultValue = "true")
     private boolean applyLinkRemovalToTwoStepNeighbors = true;
 
+    /**
+     * Implementation of PageRank used for ranking the tokens, either CSR (primitive arrays) or UJMP (matrix library).
+     */
+    public static final String PARAM_PAGE_RANK_ENGINE = "pageRankEngine";
+    @ConfigurationParameter(name = PARAM_PAGE_RANK_ENGINE, description = "Implementation of PageRank used for " +
+            "ranking the tokens, either CSR (primitive arrays) or UJMP (matrix library).", defaultValue = "CSR")
+    private String pageRankEngineName = "CSR";
+
+    /**
+     * If true, ranks the tokens of all sentences of a document with a single batched PageRank run (per pass) instead
+     * of one run per sentence. Requires the CSR engine, otherwise the sentences are ranked one by one.
+     */
+    public static final String PARAM_BATCH_RANKING = "batchRanking";
+    @ConfigurationParameter(name = PARAM_BATCH_RANKING, description = "If true, ranks the tokens of all sentences of " +
+            "a document with a single batched PageRank run (per pass) instead of one run per sentence. Requires the " +
+            "CSR engine, otherwise the sentences are ranked one by one.", defaultValue = "false")
+    private boolean batchRanking = false;
+
+    /**
+     * Sentences with at most this many tokens are ranked by solving the PageRank equations directly instead of
+     * iterating. Only supported by the CSR engine; 0 disables the direct solver.
+     */
+    public static final String PARAM_DIRECT_SOLVER_MAX_TOKENS = "directSolverMaxTokens";
+    @ConfigurationParameter(name = PARAM_DIRECT_SOLVER_MAX_TOKENS, description = "Sentences with at most this many " +
+            "tokens are ranked by solving the PageRank equations directly instead of iterating. Only supported by " +
+            "the CSR engine; 0 disables the direct solver.", defaultValue = "0")
+    private int directSolverMaxTokens = 0;
+
+    /**
+     * If greater than 0, PageRank applies quadratic extrapolation every given number of iterations to converge faster.
+     * Must be 0 or at least 3. Only supported by the CSR engine; 0 disables extrapolation.
+     */
+    public static final String PARAM_PAGE_RANK_EXTRAPOLATION_INTERVAL = "pageRankExtrapolationInterval";
+    @ConfigurationParameter(name = PARAM_PAGE_RANK_EXTRAPOLATION_INTERVAL, description = "If greater than 0, " +
+            "PageRank applies quadratic extrapolation every given number of iterations to converge faster. Must be " +
+            "0 or at least 3. Only supported by the CSR engine; 0 disables extrapolation.", defaultValue = "0")
+    private int pageRankExtrapolationInterval = 0;
+
+    /**
+     * If true, the links of the morphological rules are not added one by one but implied by classes of tokens with
+     * equal prefixes and suffixes, and the links to verbs are implied by making each verb a target of all other tokens.
+     * PageRank computes the contribution of both in linear time, which makes long sentences much cheaper to rank. The
+     * scores only differ by rounding, which can swap tokens with almost equal scores. Only supported by the CSR engine.
+     */
+    public static final String PARAM_IMPLICIT_RULE_LINKS = "implicitRuleLinks";
+    @ConfigurationParameter(name = PARAM_IMPLICIT_RULE_LINKS, description = "If true, the links of the morphological " +
+            "rules and the links to verbs are not added one by one but implied by classes of tokens with equal " +
+            "prefixes and suffixes and by broadcasting to the verbs, whose contribution PageRank computes in linear " +
+            "time. Only supported by the CSR engine.", defaultValue =
+            "false")
+    private boolean implicitRuleLinks = false;
+
+    /**
+     * Number of threads that rank the sentences of a document and build their trees in parallel. The dependencies are
+     * added to the CAS by the calling thread in document order, so the result does not depend on the number of
+     * threads.
+     */
+    public static final String PARAM_PARSING_THREADS = "parsingThreads";
+    @ConfigurationParameter(name = PARAM_PARSING_THREADS, description = "Number of threads that rank the sentences " +
+            "of a document and build their trees in parallel. The result does not depend on the number of threads.",
+            defaultValue = "1")
+    private int parsingThreads = 1;
+
+    private static final int PREFIX_PARTITION = 0;
+    private static final int SUFFIX_PARTITION = 1;
+
     /**
      * A set of lower-case function words.
      */
@@ -227,31 +338,144 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
 
     private MWEData mweData;
     private DatabaseThesaurusDatastructure dt = null;
-    private Map<String, Set<String>> dtCache = null;
+    private SimilarTermsCache dtCache = null;
+
+    private final SimilarTermsCache.Loader similarTermsLoader = new SimilarTermsCache.Loader() {
+        @Override
+        public Set<String> load(String term) {
+            return toTermSet(dt.getSimilarTerms(term));
+        }
+    };
 
     private UniversalRules ruleset = new UniversalRules();
 
+    /**
+     * Keys of the resources acquired from {@link SharedResources}, which are released in {@link #destroy()}.
+     */
+    private final ArrayList<String> sharedResourceKeys = new ArrayList<>();
+
+    private PageRank.Engine pageRankEngine;
+
+    /**
+     * Number of PageRank runs and their summed iterations per pass (0 for the first or only pass, 1 for the second
+     * pass of the two pass mode), reported in {@link #collectionProcessComplete()}.
+     */
+    private final AtomicLongArray pageRankRuns = new AtomicLongArray(2);
+    private final AtomicLongArray pageRankIterations = new AtomicLongArray(2);
+
+    /**
+     * Ranks the sentences and builds their trees if {@link #PARAM_PARSING_THREADS} is greater than 1, otherwise null.
+     */
+    private ForkJoinPool pool = null;
+
+    /**
+     * PageRank buffers sized to the longest sentence seen so far by the current thread.
+     */
+    private static final ThreadLocal<PageRankWorkspace> PAGE_RANK_WORKSPACE = new ThreadLocal<PageRankWorkspace>() {
+        @Override
+        protected PageRankWorkspace initialValue() {
+            return new PageRankWorkspace();
+        }
+    };
+
 
     private static final String MESSAGE_DIGEST = "de.tudarmstadt.informatik.lt.unsupervised" +
             ".JUnsupervisedParser_Messages";
 
     /**
-     * Reads the list of function words from {@link #functionWordsFile}.
+     * Acquires the function words, the multi-word expressions and the universal rules, see {@link SharedResources}.
      */
     @Override
     public void initialize(UimaContext context) throws ResourceInitializationException {
         super.initialize(context);
 
-        if (useUniversalRules) ruleset.loadDefaultRules();
+        try {
+            pageRankEngine = PageRank.Engine.valueOf(pageRankEngineName.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ResourceInitializationException(MESSAGE_DIGEST, "unknownPageRankEngine", new
+                    Object[]{pageRankEngineName}, e);
+        }
+        if (pageRankExtrapolationInterval < 0 || pageRankExtrapolationInterval == 1 ||
+                pageRankExtrapolationInterval == 2) {
+            throw new ResourceInitializationException(MESSAGE_DIGEST, "invalidExtrapolationInterval", new
+                    Object[]{pageRankExtrapolationInterval});
+        }
+        if (parsingThreads < 1) {
+            throw new ResourceInitializationException(MESSAGE_DIGEST, "invalidParsingThreads", new
+                    Object[]{parsingThreads});
+        }
+        if (dtCacheSize < 0) {
+            throw new ResourceInitializationException(MESSAGE_DIGEST, "invalidDtCacheSize", new
+                    Object[]{dtCacheSize});
+        }
 
-        functionWords = new HashSet<String>();
+        try {
+            acquireSharedResources();
+        } catch (ResourceInitializationException e) {
+            releaseSharedResources();
+            throw e;
+        }
 
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(functionWordsFile), StandardCharsets
-                .UTF_8)) {
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                functionWords.add(line.trim().toLowerCase());
+        if (dtRemoveSimilar) {
+            dt = new DatabaseThesaurusDatastructure(dtConfigFile);
+            getLogger().log(Level.INFO, "Connecting to thesaurus database");
+            if (!dt.connect()) {
+                releaseSharedResources();
+                throw new ResourceInitializationException(MESSAGE_DIGEST, "dtConnectError", new Object[]{}, dt
+                        .getConnectionError());
             }
+            if (!dt.hasBatchSimilarTerms()) {
+                getLogger().log(Level.INFO, "No batchSimilarTermsQuery configured, similar terms are looked up " +
+                        "one term at a time");
+            }
+        }
+
+        if (parsingThreads > 1) {
+            pool = new ForkJoinPool(parsingThreads);
+        }
+    }
+
+    private void acquireSharedResources() throws ResourceInitializationException {
+        if (useUniversalRules) {
+            try {
+                ruleset = acquireSharedResource(SharedResources.key("universalRules", universalRulesFile), new
+                        SharedResources.Loader<UniversalRules>() {
+                    @Override
+                    public UniversalRules load() throws IOException {
+                        UniversalRules rules = new UniversalRules();
+                        if (universalRulesFile != null) {
+                            rules.loadRules(Paths.get(universalRulesFile));
+                        } else {
+                            rules.loadDefaultRules();
+                        }
+                        return rules;
+                    }
+                });
+            } catch (IOException e) {
+                throw new ResourceInitializationException(MESSAGE_DIGEST, "universalRulesReadError", new
+                        Object[]{universalRulesFile}, e);
+            } catch (IllegalArgumentException e) {
+                throw new ResourceInitializationException(MESSAGE_DIGEST, "universalRulesBadFormat", new
+                        Object[]{universalRulesFile, e.getMessage()}, e);
+            }
+        }
+
+        try {
+            functionWords = acquireSharedResource(SharedResources.key("functionWords", functionWordsFile), new
+                    SharedResources.Loader<Set<String>>() {
+                @Override
+                public Set<String> load() throws IOException {
+                    HashSet<String> words = new HashSet<>();
+                    try (BufferedReader reader = Files.newBufferedReader(Paths.get(functionWordsFile),
+                            StandardCharsets.UTF_8)) {
+                        String line = null;
+                        while ((line = reader.readLine()) != null) {
+                            words.add(line.trim().toLowerCase());
+                        }
+                    }
+                    return Collections.unmodifiableSet(words);
+                }
+            });
         } catch (FileNotFoundException e) {
             throw new ResourceInitializationException(MESSAGE_DIGEST, "fileNotFound", new
                     Object[]{functionWordsFile}, e);
@@ -261,8 +485,15 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
 
         if (mweFile != null) {
             try {
-                mweData = new MWEData(mweFile, mweMinScore);
-                context.getLogger().log(Level.INFO, "MWE list loaded from " + mweFile);
+                mweData = acquireSharedResource(SharedResources.key("mwe", mweFile, mweMinScore), new
+                        SharedResources.Loader<MWEData>() {
+                    @Override
+                    public MWEData load() throws IOException {
+                        MWEData data = new MWEData(mweFile, mweMinScore);
+                        getLogger().log(Level.INFO, "MWE list loaded from " + mweFile);
+                        return data;
+                    }
+                });
             } catch (IOException e) {
                 throw new ResourceInitializationException(MESSAGE_DIGEST, "mweReadError", new Object[]{mweFile}, e);
             }
@@ -271,130 +502,359 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
         }
 
         if (dtRemoveSimilar) {
-            dt = new DatabaseThesaurusDatastructure(dtConfigFile);
-            getLogger().log(Level.INFO, "Connecting to thesaurus database");
-            if (!dt.connect()) {
-                throw new ResourceInitializationException(MESSAGE_DIGEST, "dtConnectError", new Object[]{}, dt
-                        .getConnectionError());
+            try {
+                dtCache = acquireSharedResource(SharedResources.key("dtCache", dtConfigFile, dtCacheSize), new
+                        SharedResources.Loader<SimilarTermsCache>() {
+                    @Override
+                    public SimilarTermsCache load() {
+                        return new SimilarTermsCache(dtCacheSize);
+                    }
+                });
+            } catch (IOException e) {
+                // not thrown, the cache is created empty
+                throw new IllegalStateException(e);
             }
-            dtCache = new HashMap<>();
         }
     }
 
+    private <T> T acquireSharedResource(String key, SharedResources.Loader<T> loader) throws IOException {
+        T resource = SharedResources.acquire(key, loader);
+        sharedResourceKeys.add(key);
+        return resource;
+    }
+
+    private void releaseSharedResources() {
+        for (String key : sharedResourceKeys) {
+            SharedResources.release(key);
+        }
+        sharedResourceKeys.clear();
+    }
+
+    @Override
+    public void collectionProcessComplete() throws AnalysisEngineProcessException {
+        for (int pass = 0; pass < pageRankRuns.length(); pass++) {
+            long runs = pageRankRuns.get(pass);
+            if (runs == 0) continue;
+            long iterations = pageRankIterations.get(pass);
+            getLogger().log(Level.INFO, String.format("PageRank pass %d: %d iterations in %d runs (%.2f per run)",
+                    pass + 1, iterations, runs, iterations / (double) runs));
+        }
+        if (dtCache != null) {
+            getLogger().log(Level.INFO, String.format("Thesaurus cache: %d hits, %d misses, %d evictions, %d terms " +
+                    "cached", dtCache.getHits(), dtCache.getMisses(), dtCache.getEvictions(), dtCache.size()));
+        }
+        super.collectionProcessComplete();
+    }
+
     @Override
     public void destroy() {
         if (dt != null) {
             dt.destroy();
         }
+        if (pool != null) {
+            pool.shutdown();
+        }
+        releaseSharedResources();
         super.destroy();
     }
 
     @Override
     public void process(JCas jCas) throws AnalysisEngineProcessException {
+        if (batchRanking || pool != null) {
+            parseSentencesBatched(jCas);
+            return;
+        }
+
+        Map<String, Set<String>> similarTerms = prefetchSimilarTerms(jCas);
         for (Sentence sentence : JCasUtil.select(jCas, Sentence.class)) {
-            parseSentence(sentence, jCas);
+            parseSentence(sentence, jCas, similarTerms);
+        }
+    }
+
+    /**
+     * Parses all sentences of the document, ranking the tokens of all sentences at once with
+     * {@link #rankSentences(List, List)}. Yields the same dependencies as calling
+     * {@link #parseSentence(Sentence, JCas)} for each sentence.
+     * <p/>
+     * The tokens are read from the CAS up front, so that the sentences can be ranked and their heads found on the
+     * threads of the pool. Only the calling thread adds the dependencies to the CAS, in document order.
+     */
+    protected void parseSentencesBatched(JCas jCas) {
+        Map<String, Set<String>> similarTerms = prefetchSimilarTerms(jCas);
+        ArrayList<ArrayList<Token>> sentences = new ArrayList<>();
+        final ArrayList<SentenceFeatures> features = new ArrayList<>();
+        ArrayList<CsrGraph.Builder> twoPassLinks = new ArrayList<>();
+        for (Sentence sentence : JCasUtil.select(jCas, Sentence.class)) {
+            ArrayList<Token> tokens = new SentenceTokens(JCasUtil.selectCovered(Token.class, sentence),
+                    similarTerms);
+            sentences.add(tokens);
+            features.add(extractFeatures(tokens));
+            twoPassLinks.add(new CsrGraph.Builder().ensureVertexCount(tokens.size()));
+        }
+
+        boolean twoPassFirstRun = twoPass;
+        List<double[]> initialScores = null;
+        while (true) {
+            // each pass ranks copies, so that the links of the construction rules are not added twice
+            ArrayList<CsrGraph.Builder> links = new ArrayList<>(twoPassLinks.size());
+            for (CsrGraph.Builder sentenceLinks : twoPassLinks) {
+                links.add(new CsrGraph.Builder().addAll(sentenceLinks));
+            }
+
+            final List<Ranking> rankings = rankSentences(sentences, links, initialScores);
+            int pass = twoPass && !twoPassFirstRun ? 1 : 0;
+            for (Ranking ranking : rankings) {
+                countPageRankRun(pass, ranking);
+            }
+            if (twoPassFirstRun && twoPassWarmStart) {
+                initialScores = new ArrayList<>(sentences.size());
+                for (int i = 0; i < sentences.size(); i++) {
+                    initialScores.add(rankings.get(i).getScores());
+                }
+            }
+
+            final int[][] heads = new int[sentences.size()][];
+            forEachSentence(sentences.size(), new SentenceRangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        heads[i] = findHeads(features.get(i), rankings.get(i));
+                    }
+                }
+            });
+            for (int i = 0; i < sentences.size(); i++) {
+                if (twoPassFirstRun) {
+                    addTwoPassLinks(twoPassLinks.get(i), rankings.get(i), heads[i]);
+                } else {
+                    addDependencies(sentences.get(i), jCas, rankings.get(i), heads[i]);
+                }
+            }
+
+            if (!twoPassFirstRun) break;
+            twoPassFirstRun = false;
         }
     }
 
     protected void parseSentence(Sentence sentence, JCas jCas) {
-        ArrayList<Token> tokens = new ArrayList<>(JCasUtil.selectCovered(Token.class, sentence));
-        parseSentence(tokens, jCas, twoPass, new int[tokens.size()][tokens.size()]);
+        parseSentence(sentence, jCas, Collections.<String, Set<String>>emptyMap());
+    }
+
+    /**
+     * @param similarTerms the similar terms prefetched for the document, see {@link #prefetchSimilarTerms(JCas)}
+     */
+    private void parseSentence(Sentence sentence, JCas jCas, Map<String, Set<String>> similarTerms) {
+        ArrayList<Token> tokens = new SentenceTokens(JCasUtil.selectCovered(Token.class, sentence), similarTerms);
+        parseSentence(tokens, jCas, twoPass, new CsrGraph.Builder().ensureVertexCount(tokens.size()));
     }
 
     /**
      * Parses the given sentence and adds dependency annotations to the CAS.
+     *
+     * @param links links between tokens from other sources that are kept for the second run of the two pass mode.
+     *              The ranking works on a copy, so only the dependencies of the first run are added.
      */
-    protected void parseSentence(ArrayList<Token> tokens, JCas jCas, boolean twoPassFirstRun, int[][] matrix) {
-        Deque<RankedToken> ranking = rankTokens(tokens, matrix.clone());
+    protected void parseSentence(ArrayList<Token> tokens, JCas jCas, boolean twoPassFirstRun, CsrGraph.Builder links) {
+        parseSentence(tokens, jCas, twoPassFirstRun, links, null);
+    }
 
-        /* DEBUG
-        for (RankedToken rt : ranking) {
-            System.out.println(rt.token.getCoveredText());
-        }*/
+    /**
+     * Parses the given sentence and adds dependency annotations to the CAS.
+     *
+     * @param links         see {@link #parseSentence(ArrayList, JCas, boolean, CsrGraph.Builder)}
+     * @param initialScores scores to start the ranking from, see
+     *                      {@link #rankTokens(ArrayList, CsrGraph.Builder, double[])}
+     */
+    protected void parseSentence(ArrayList<Token> tokens, JCas jCas, boolean twoPassFirstRun, CsrGraph.Builder links,
+                                 double[] initialScores) {
+        parseSentence(tokens, extractFeatures(tokens), jCas, twoPassFirstRun, links, initialScores);
+    }
 
-        LinkedList<RankedToken> heads = new LinkedList<>();
+    private void parseSentence(ArrayList<Token> tokens, SentenceFeatures features, JCas jCas, boolean
+            twoPassFirstRun, CsrGraph.Builder links, double[] initialScores) {
+        CsrGraph.Builder graphLinks = PAGE_RANK_WORKSPACE.get().clearGraphBuilder().addAll(links);
+        Ranking ranking = rankTokens(tokens, graphLinks, initialScores);
+        countPageRankRun(twoPass && !twoPassFirstRun ? 1 : 0, ranking);
+        double[] firstPassScores = twoPassFirstRun && twoPassWarmStart ? ranking.getScores() : null;
+        attachHeads(tokens, features, jCas, twoPassFirstRun, links, ranking);
 
-        if (ranking.isEmpty()) {
-            return;
+        if (twoPassFirstRun) {
+            parseSentence(tokens, features, jCas, false, links, firstPassScores);
         }
+    }
 
-        // first is always considered ROOT
-        RankedToken firstElement = ranking.pop();
-        heads.add(firstElement);
-
-        if (!twoPassFirstRun) {
-            // by convention, the Conll2006Writer in DKPro expects elements attached to the root to be looping
-            // see https://github.com/dkpro/dkpro-core/issues/628
-            Dependency annotation = new Dependency(jCas, firstElement.token.getBegin(), firstElement.token.getEnd());
-            annotation.setDependencyType("ROOT");
-            annotation.setDependent(firstElement.token);
-            annotation.setGovernor(firstElement.token);
-            annotation.addToIndexes();
+    /**
+     * Second step of the parsing algorithm. Assigns each token a head from the tokens ranked before it and either
+     * adds the dependency annotations to the CAS or, in the first run of the two pass mode, adds the dependencies
+     * as links to the given builder.
+     */
+    protected void attachHeads(ArrayList<Token> tokens, JCas jCas, boolean twoPassFirstRun, CsrGraph.Builder links,
+                               Ranking ranking) {
+        attachHeads(tokens, extractFeatures(tokens), jCas, twoPassFirstRun, links, ranking);
+    }
+
+    private void attachHeads(ArrayList<Token> tokens, SentenceFeatures features, JCas jCas, boolean twoPassFirstRun,
+                             CsrGraph.Builder links, Ranking ranking) {
+        /* DEBUG
+        for (int position = 0; position < ranking.size(); position++) {
+            System.out.println(tokens.get(ranking.getToken(position)).getCoveredText());
+        }*/
+
+        int[] heads = findHeads(features, ranking);
+        if (twoPassFirstRun) {
+            addTwoPassLinks(links, ranking, heads);
+        } else {
+            addDependencies(tokens, jCas, ranking, heads);
         }
+    }
 
-        List<Set<Integer>> mweSets = mweData.createMWESets(tokens, mweMaxTokens, mweMinScore);
+    /**
+     * Adds the PageRank run behind the given ranking, if any, to the statistics of the given pass.
+     */
+    private void countPageRankRun(int pass, Ranking ranking) {
+        if (ranking.pageRankIterations < 0) return;
+        pageRankRuns.incrementAndGet(pass);
+        pageRankIterations.addAndGet(pass, ranking.pageRankIterations);
+    }
 
-        while (!ranking.isEmpty()) {
-            RankedToken dependent = ranking.pop();
+    /**
+     * Finds the head of each token. Only reads the given features and ranking, so that the heads of several sentences
+     * can be found in parallel.
+     *
+     * @return the index of each token's head, where the first token of the ranking is its own head (ROOT)
+     */
+    private int[] findHeads(SentenceFeatures features, Ranking ranking) {
+        int[] heads = new int[ranking.size()];
+        if (ranking.size() == 0) {
+            return heads;
+        }
 
-            boolean bestMatchedRuleOrIsMWE = false;
-            int bestDistance = Integer.MAX_VALUE;
-            double bestPR = 0.0;
-            RankedToken bestHead = null;
+        // position of each token in the ranking: the tokens before the current one are the placed heads
+        int[] positions = new int[ranking.size()];
+        for (int position = 0; position < ranking.size(); position++) {
+            positions[ranking.getToken(position)] = position;
+        }
 
-            for (RankedToken headCandidate : heads) {
-                boolean candidateMatchesRuleOrIsMWE = ruleset.matchesRule(getUniversalPosValueForToken(headCandidate
-                                .token),
-                        getUniversalPosValueForToken(dependent.token)) || !Collections.disjoint(mweSets.get
-                        (headCandidate.index), mweSets.get(dependent.index));
+        // the placed heads by token index, in total and, if the rules are used, per universal POS tag, so that the
+        // nearest one is found by scanning a bit set. The index of a tag is created with its first head.
+        BitSet headIndices = new BitSet(features.size);
+        BitSet[] headIndicesByTag = useUniversalRules ? new BitSet[UniversalRules.TAG_COUNT] : null;
 
-                if (bestHead == null || (!bestMatchedRuleOrIsMWE && candidateMatchesRuleOrIsMWE)) {
-                    // start with fresh head OR prefer rule matchers over non-matchers
-                    bestMatchedRuleOrIsMWE = candidateMatchesRuleOrIsMWE;
-                    bestDistance = Math.abs(headCandidate.index - dependent.index);
-                    bestPR = headCandidate.score;
-                    bestHead = headCandidate;
-                } else if (bestMatchedRuleOrIsMWE && !candidateMatchesRuleOrIsMWE) {
-                    continue; // prefer heads matching a rule
-                } else {
-                    // bestMatchedRule == pairMatchesRule
-                    int distance = Math.abs(headCandidate.index - dependent.index);
-                    if (distance < bestDistance) {
-                        // always prefer best distance
-                        bestMatchedRuleOrIsMWE = candidateMatchesRuleOrIsMWE;
-                        bestDistance = distance;
-                        bestPR = headCandidate.score;
-                        bestHead = headCandidate;
-                    } else if (distance == bestDistance && headCandidate.score > bestPR) {
-                        // in case of a tie, prefer with a better score
-                        bestMatchedRuleOrIsMWE = candidateMatchesRuleOrIsMWE;
-                        bestDistance = distance;
-                        bestPR = headCandidate.score;
-                        bestHead = headCandidate;
+        // first is always considered ROOT
+        int firstElement = ranking.getToken(0);
+        heads[firstElement] = firstElement;
+        addHead(firstElement, features, headIndices, headIndicesByTag);
+
+        MWEMemberships mwes = features.mwes;
+
+        for (int position = 1; position < ranking.size(); position++) {
+            int dependent = ranking.getToken(position);
+            int bestHead = -1;
+
+            // prefer heads matching a rule: the nearest head of each matching tag is a candidate
+            if (headIndicesByTag != null) {
+                int tag = features.universalPosIds[dependent];
+                for (int headTag = 0; headTag < headIndicesByTag.length; headTag++) {
+                    if (headIndicesByTag[headTag] != null && ruleset.matchesRule(headTag, tag)) {
+                        bestHead = nearestHead(bestHead, headIndicesByTag[headTag], dependent, ranking, positions);
+                    }
+                }
+            }
+
+            // ... or sharing a MWE, whose members are at most mweMaxTokens - 1 tokens apart
+            if (mwes.isMember(dependent)) {
+                for (int j = Math.max(0, dependent - mweMaxTokens + 1); j < Math.min(features.size, dependent +
+                        mweMaxTokens); j++) {
+                    if (j != dependent && positions[j] < position && mwes.shareExpression(j, dependent)) {
+                        bestHead = betterHead(bestHead, j, dependent, ranking, positions);
                     }
                 }
             }
 
-            assert bestHead != null : "No head has been assigned in the head search loop";
+            if (bestHead < 0) {
+                bestHead = nearestHead(-1, headIndices, dependent, ranking, positions);
+            }
+
+            assert bestHead >= 0 : "No head has been assigned in the head search loop";
+            heads[dependent] = bestHead;
+
+            // add to possible heads
+            addHead(dependent, features, headIndices, headIndicesByTag);
+        }
+        return heads;
+    }
 
-            if (twoPassFirstRun) {
-                matrix[dependent.getIndex()][bestHead.getIndex()] += twoPassLinkWeight;
+    /**
+     * Adds the dependency annotations to the CAS in the order of the ranking.
+     *
+     * @param heads the head of each token, see {@link #findHeads(SentenceFeatures, Ranking)}
+     */
+    private void addDependencies(ArrayList<Token> tokens, JCas jCas, Ranking ranking, int[] heads) {
+        for (int position = 0; position < ranking.size(); position++) {
+            Token dependentToken = tokens.get(ranking.getToken(position));
+            Dependency annotation = new Dependency(jCas, dependentToken.getBegin(), dependentToken.getEnd());
+            annotation.setDependent(dependentToken);
+            annotation.setGovernor(tokens.get(heads[ranking.getToken(position)]));
+            if (position == 0) {
+                // by convention, the Conll2006Writer in DKPro expects elements attached to the root to be looping
+                // see https://github.com/dkpro/dkpro-core/issues/628
+                annotation.setDependencyType("ROOT");
             } else {
-                // create annotation
-                Dependency annotation = new Dependency(jCas, dependent.token.getBegin(), dependent.token.getEnd());
-                annotation.setDependent(dependent.token);
-                annotation.setGovernor(bestHead.token);
                 annotation.setDependencyType("DEP");
-                annotation.addToIndexes();
             }
+            annotation.addToIndexes();
+        }
+    }
 
-            // add to possible heads
-            heads.add(dependent);
+    /**
+     * Adds the dependencies of the first run of the two pass mode as links from dependent to head to the builder.
+     */
+    private void addTwoPassLinks(CsrGraph.Builder links, Ranking ranking, int[] heads) {
+        for (int position = 1; position < ranking.size(); position++) {
+            int dependent = ranking.getToken(position);
+            links.addEdge(dependent, heads[dependent], twoPassLinkWeight);
         }
+    }
 
-        if (twoPassFirstRun) {
-            parseSentence(tokens, jCas, false, matrix);
+    /**
+     * @param headIndicesByTag the placed heads per universal POS tag, or null if the rules are not used
+     */
+    private static void addHead(int head, SentenceFeatures features, BitSet headIndices, BitSet[] headIndicesByTag) {
+        headIndices.set(head);
+        if (headIndicesByTag == null) return;
+
+        int tag = features.universalPosIds[head];
+        if (headIndicesByTag[tag] == null) {
+            headIndicesByTag[tag] = new BitSet(features.size);
         }
+        headIndicesByTag[tag].set(head);
+    }
+
+    /**
+     * Returns the better of the given head and the nearest heads to the left and to the right of the dependent among
+     * the given indices, see {@link #betterHead(int, int, int, Ranking, int[])}.
+     */
+    private static int nearestHead(int bestHead, BitSet headIndices, int dependent, Ranking ranking, int[]
+            positions) {
+        int left = headIndices.previousSetBit(dependent - 1);
+        if (left >= 0) bestHead = betterHead(bestHead, left, dependent, ranking, positions);
+        int right = headIndices.nextSetBit(dependent + 1);
+        if (right >= 0) bestHead = betterHead(bestHead, right, dependent, ranking, positions);
+        return bestHead;
+    }
+
+    /**
+     * Prefers the head nearer to the dependent. In case of a tie, prefers the head with the better score, and then the
+     * head that was placed first. A negative head is no head.
+     */
+    private static int betterHead(int bestHead, int candidate, int dependent, Ranking ranking, int[] positions) {
+        if (bestHead < 0) return candidate;
+        int bestDistance = Math.abs(bestHead - dependent);
+        int distance = Math.abs(candidate - dependent);
+        if (distance != bestDistance) return distance < bestDistance ? candidate : bestHead;
+        double bestScore = ranking.getScore(bestHead);
+        double score = ranking.getScore(candidate);
+        if (score != bestScore) return score > bestScore ? candidate : bestHead;
+        return positions[candidate] < positions[bestHead] ? candidate : bestHead;
     }
 
     protected String getUniversalPosValueForToken(Token token) {
@@ -408,114 +868,489 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
         return universalPOS.get(0).getPosValue();
     }
 
+    /**
+     * Returns {@link #getUniversalPosValueForToken(Token)} for each of the given tokens, which must be sorted by their
+     * offsets like the tokens of a sentence. Instead of one index lookup per token, the universal POS annotations of
+     * all tokens are selected at once and assigned to the tokens in a single sweep.
+     */
+    protected String[] getUniversalPosValuesForTokens(List<Token> tokens) {
+        String[] values = new String[tokens.size()];
+        if (tokens.isEmpty()) return values;
+
+        int begin = tokens.get(0).getBegin();
+        int end = 0;
+        for (Token token : tokens) {
+            end = Math.max(end, token.getEnd());
+        }
+
+        // seek to the first annotation at the first token like JCasUtil.selectCovered() does (selecting by offsets
+        // would scan the index from the start of the document) and collect the annotations up to the last token
+        CAS cas = tokens.get(0).getCAS();
+        FSIterator<AnnotationFS> iterator = cas.getAnnotationIndex(CasUtil.getType(cas, UniversalPOS.class)).iterator();
+        iterator.moveTo(tokens.get(0));
+        if (!iterator.isValid()) iterator.moveToLast();
+        while (iterator.isValid() && iterator.get().getBegin() >= begin) iterator.moveToPrevious();
+        if (iterator.isValid()) {
+            iterator.moveToNext();
+        } else {
+            iterator.moveToFirst();
+        }
+        ArrayList<AnnotationFS> universalPOS = new ArrayList<>();
+        for (; iterator.isValid() && iterator.get().getBegin() <= end; iterator.moveToNext()) {
+            AnnotationFS annotation = iterator.get();
+            if (annotation.getBegin() >= begin && annotation.getEnd() <= end) universalPOS.add(annotation);
+        }
+
+        // the annotations are sorted by begin, so those starting before a token are not covered by any later token
+        int first = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            while (first < universalPOS.size() && universalPOS.get(first).getBegin() < token.getBegin()) first++;
+
+            boolean covered = false;
+            for (int k = first; k < universalPOS.size() && universalPOS.get(k).getBegin() <= token.getEnd(); k++) {
+                if (universalPOS.get(k).getEnd() <= token.getEnd()) {
+                    values[i] = ((UniversalPOS) universalPOS.get(k)).getPosValue();
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered && token.getPos() != null) values[i] = token.getPos().getPosValue();
+        }
+        return values;
+    }
+
     /**
      * First step of the parsing algorithm. Ranks tokens according to their PageRank.
      *
-     * @param matrix preexisting links between tokens from other sources (e.g. two pass run). <b>The array is
-     *               modified during the link discovery step and contains all links afterwards.</b>
+     * @param links preexisting links between tokens from other sources (e.g. two pass run). <b>The builder is
+     *              modified during the link discovery step and contains all links afterwards.</b>
      * @return an ordering of tokens, where the values represent the indices of the initial token list.
      */
-    protected Deque<RankedToken> rankTokens(final ArrayList<Token> tokens, int[][] matrix) {
+    protected Ranking rankTokens(final ArrayList<Token> tokens, CsrGraph.Builder links) {
+        return rankTokens(tokens, links, null);
+    }
 
-        List<Set<Integer>> mweTokenMemberships = mweData.createMWESets(tokens, mweMaxTokens, mweMinScore);
+    /**
+     * First step of the parsing algorithm. Ranks tokens according to their PageRank, starting from the given scores.
+     * Subclasses replacing the ranking should override this method.
+     *
+     * @param links         preexisting links between tokens, see {@link #rankTokens(ArrayList, CsrGraph.Builder)}
+     * @param initialScores scores indexed by token to start PageRank from, e.g. the scores of the first pass, or null
+     *                      to start from the uniform distribution. Ignored by the UJMP engine.
+     * @return an ordering of tokens, where the values represent the indices of the initial token list.
+     */
+    protected Ranking rankTokens(final ArrayList<Token> tokens, CsrGraph.Builder links, double[] initialScores) {
+        return rankTokens(extractFeatures(tokens), links, initialScores);
+    }
 
-        for (int i = 0; i < tokens.size(); i++) {
+    private Ranking rankTokens(SentenceFeatures features, CsrGraph.Builder links, double[] initialScores) {
+        ImplicitEdges implicitEdges = clearImplicitEdges();
+        addLinks(features, links, implicitEdges, 0);
+
+        if (pageRankEngine == PageRank.Engine.CSR) {
+            PageRankWorkspace workspace = PAGE_RANK_WORKSPACE.get();
+            workspace.setDirectSolverMaxNodes(directSolverMaxTokens);
+            workspace.setExtrapolationInterval(pageRankExtrapolationInterval);
+            double[] scores = PageRank.forGraph(workspace.buildGraph(links), implicitEdges, 1.0, PageRank
+                    .DEFAULT_CONVERGENCE, PageRank.DEFAULT_MAX_ITERATIONS, 0, initialScores,
+                    workspace);
+            Ranking ranking = Ranking.byScore(scores, 0, features.size);
+            ranking.pageRankIterations = workspace.getIterations();
+            return ranking;
+        }
+
+        double[] scores = PageRank.forAdjacencyMatrix(links.build().toSparseMatrix(), 1.0, PageRank
+                .DEFAULT_CONVERGENCE, PageRank.DEFAULT_MAX_ITERATIONS);
+        return Ranking.byScore(scores, 0, features.size);
+    }
+
+    /**
+     * Ranks the tokens of several sentences. If {@link #PARAM_BATCH_RANKING} is true and the CSR engine is used, the
+     * sentence graphs are ranked together in batched PageRank runs; otherwise this is the same as calling
+     * {@link #rankTokens(ArrayList, CsrGraph.Builder)} for each sentence.
+     *
+     * @param links preexisting links for each sentence, see {@link #rankTokens(ArrayList, CsrGraph.Builder)}
+     * @return a ranking for each sentence
+     */
+    protected List<Ranking> rankSentences(List<ArrayList<Token>> sentences, List<CsrGraph.Builder> links) {
+        return rankSentences(sentences, links, null);
+    }
+
+    /**
+     * Ranks the tokens of several sentences, starting from the given scores. The features of the tokens are read from
+     * the CAS by the calling thread, while the sentences are ranked on the threads of the pool if
+     * {@link #PARAM_PARSING_THREADS} is greater than 1. Subclasses replacing the ranking should override this method.
+     *
+     * @param links         preexisting links for each sentence, see
+     *                      {@link #rankTokens(ArrayList, CsrGraph.Builder)}
+     * @param initialScores scores to start from for each sentence, see
+     *                      {@link #rankTokens(ArrayList, CsrGraph.Builder, double[])}, or null
+     * @return a ranking for each sentence
+     */
+    protected List<Ranking> rankSentences(List<ArrayList<Token>> sentences, final List<CsrGraph.Builder> links,
+                                          final List<double[]> initialScores) {
+        final ArrayList<SentenceFeatures> features = new ArrayList<>(sentences.size());
+        for (ArrayList<Token> tokens : sentences) {
+            features.add(extractFeatures(tokens));
+        }
+
+        final Ranking[] rankings = new Ranking[sentences.size()];
+        forEachSentence(sentences.size(), new SentenceRangeTask() {
+            @Override
+            public void run(int from, int to) {
+                if (batchRanking && pageRankEngine == PageRank.Engine.CSR) {
+                    rankBatch(features, links, initialScores, from, to, rankings);
+                    return;
+                }
+                for (int i = from; i < to; i++) {
+                    rankings[i] = rankTokens(features.get(i), links.get(i), initialScores == null ? null :
+                            initialScores.get(i));
+                }
+            }
+        });
+        return Arrays.asList(rankings);
+    }
+
+    /**
+     * Ranks the sentences from (inclusive) to (exclusive) with one batched PageRank run. Each sentence converges on
+     * its own, so the rankings do not depend on which sentences share a batch.
+     */
+    private void rankBatch(List<SentenceFeatures> features, List<CsrGraph.Builder> links, List<double[]>
+            initialScores, int from, int to, Ranking[] rankings) {
+        PageRankWorkspace workspace = PAGE_RANK_WORKSPACE.get();
+        workspace.setDirectSolverMaxNodes(directSolverMaxTokens);
+        workspace.setExtrapolationInterval(pageRankExtrapolationInterval);
+        CsrGraphBatch batch = workspace.clearGraphBatch();
+        ImplicitEdges implicitEdges = clearImplicitEdges();
+        for (int i = from; i < to; i++) {
+            addLinks(features.get(i), links.get(i), implicitEdges, batch.getBlockStart(batch.getBlockCount()));
+            batch.addBlock(links.get(i));
+        }
+
+        double[] packedInitialScores = null;
+        if (initialScores != null) {
+            packedInitialScores = new double[batch.getBlockStart(batch.getBlockCount())];
+            for (int i = from; i < to; i++) {
+                System.arraycopy(initialScores.get(i), 0, packedInitialScores, batch.getBlockStart(i - from), batch
+                        .getBlockSize(i - from));
+            }
+        }
+
+        final double[] scores = PageRank.forBatch(batch, implicitEdges, 1.0, PageRank.DEFAULT_CONVERGENCE, PageRank
+                .DEFAULT_MAX_ITERATIONS, 0, packedInitialScores, workspace);
+        for (int i = from; i < to; i++) {
+            rankings[i] = Ranking.byScore(scores, batch.getBlockStart(i - from), features.get(i).size);
+            rankings[i].pageRankIterations = workspace.getBlockIterations()[i - from];
+        }
+    }
+
+    /**
+     * Calls {@link #rankTokens(ArrayList, CsrGraph.Builder, double[])} for each sentence. Subclasses replacing the
+     * ranking should let {@link #rankSentences(List, List, List)} delegate here.
+     */
+    protected final List<Ranking> rankSentencesIndividually(List<ArrayList<Token>> sentences, List<CsrGraph.Builder>
+            links, List<double[]> initialScores) {
+        ArrayList<Ranking> rankings = new ArrayList<>(sentences.size());
+        for (int i = 0; i < sentences.size(); i++) {
+            rankings.add(rankTokens(sentences.get(i), links.get(i), initialScores == null ? null : initialScores
+                    .get(i)));
+        }
+        return rankings;
+    }
+
+    /**
+     * A piece of work on the sentences of a document, see {@link #forEachSentence(int, SentenceRangeTask)}.
+     */
+    private interface SentenceRangeTask {
+        /**
+         * Works on the sentences from (inclusive) to (exclusive).
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs the task on the given number of sentences. If {@link #PARAM_PARSING_THREADS} is greater than 1, the
+     * sentences are split into ranges that the threads of the pool work on in parallel, so the task must only write
+     * the results of its own range.
+     */
+    private void forEachSentence(int count, SentenceRangeTask task) {
+        if (pool == null || count < 2) {
+            task.run(0, count);
+            return;
+        }
+        // a few ranges per thread even out the differing sentence lengths
+        pool.invoke(new SentenceRangeAction(task, 0, count, Math.max(1, count / (pool.getParallelism() * 4))));
+    }
+
+    /**
+     * Splits a range of sentences in halves until it is small enough to run the task on it.
+     */
+    private static class SentenceRangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SentenceRangeTask task;
+        private final int from;
+        private final int to;
+        private final int rangeSize;
+
+        SentenceRangeAction(SentenceRangeTask task, int from, int to, int rangeSize) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.rangeSize = rangeSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= rangeSize) {
+                task.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SentenceRangeAction(task, from, middle, rangeSize), new SentenceRangeAction(task, middle,
+                    to, rangeSize));
+        }
+    }
+
+    /**
+     * Adds the links of the graph construction rules to the builder.
+     *
+     * @param implicitEdges if not null, receives the links of the morphological rules instead of the builder
+     * @param nodeOffset    node no. of the first token in the implicit edges
+     */
+    private void addLinks(SentenceFeatures features, CsrGraph.Builder links, ImplicitEdges implicitEdges, int
+            nodeOffset) {
+        final int[] wordIds = features.wordIds;
+        final boolean[] functionWords = features.functionWords;
+        final int[] prefixIds = features.prefixIds;
+        final int[] suffixIds = features.suffixIds;
+        links.ensureVertexCount(features.size);
+        if (implicitEdges != null) {
+            // 3. morphological rules, see below
+            addAffixClasses(features, implicitEdges, nodeOffset);
+        }
+
+        for (int i = 0; i < features.size; i++) {
             // 1. add bidirectional links to first and second left neighbors (automatically takes care of right)
-            if (i > 0 && !tokens.get(i).getCoveredText().equals(tokens.get(i - 1).getCoveredText()) &&
-                    !shouldRemoveLinks(tokens, mweTokenMemberships, i, i - 1)) {
-                matrix[i][i - 1] += neighborLinkCount;
-                matrix[i - 1][i] += neighborLinkCount;
+            if (i > 0 && wordIds[i] != wordIds[i - 1] && !shouldRemoveLinks(features, i, 1)) {
+                links.addEdge(i, i - 1, neighborLinkCount);
+                links.addEdge(i - 1, i, neighborLinkCount);
             }
-            if (i > 1 && !tokens.get(i).getCoveredText().equals(tokens.get(i - 2).getCoveredText()) &&
-                    (!applyLinkRemovalToTwoStepNeighbors || !shouldRemoveLinks(tokens, mweTokenMemberships, i, i
-                            - 2))) {
-                matrix[i][i - 2] += 1;
-                matrix[i - 2][i] += 1;
+            if (i > 1 && wordIds[i] != wordIds[i - 2] &&
+                    (!applyLinkRemovalToTwoStepNeighbors || !shouldRemoveLinks(features, i, 2))) {
+                links.addEdge(i, i - 2, 1);
+                links.addEdge(i - 2, i, 1);
             }
 
             // 2. add incoming neighbors to function words
-            if (isFunctionWord(tokens.get(i))) {
-                if (i > 0 && (applyFunctionWordLinkingToFunctionWords || !isFunctionWord(tokens.get(i - 1))))
-                    matrix[i - 1][i] += 1;
-                if (i + 1 < tokens.size() && (applyFunctionWordLinkingToFunctionWords || !isFunctionWord(tokens.get(i
-                        + 1))))
-                    matrix[i + 1][i] += 1;
+            if (functionWords[i]) {
+                if (i > 0 && (applyFunctionWordLinkingToFunctionWords || !functionWords[i - 1]))
+                    links.addEdge(i - 1, i, 1);
+                if (i + 1 < features.size && (applyFunctionWordLinkingToFunctionWords || !functionWords[i + 1]))
+                    links.addEdge(i + 1, i, 1);
             }
 
             // 3. morphological rules (only looking to the left to avoid duplicity)
-            for (int j = 0; j < i; j++) {
-                if (suffixesInequal(tokens.get(i), tokens.get(j))) {
-                    matrix[i][j] += 1;
-                    matrix[j][i] += 1;
-                }
-                if (prefixesInequal(tokens.get(i), tokens.get(j))) {
-                    matrix[i][j] += 1;
-                    matrix[j][i] += 1;
+            if (implicitEdges == null) {
+                for (int j = 0; j < i; j++) {
+                    if (suffixIds[i] != suffixIds[j]) {
+                        links.addEdge(i, j, 1);
+                        links.addEdge(j, i, 1);
+                    }
+                    if (prefixIds[i] != prefixIds[j]) {
+                        links.addEdge(i, j, 1);
+                        links.addEdge(j, i, 1);
+                    }
                 }
             }
 
             // 4. incoming links to verbs
-            if (usePosVerb && isVerb(tokens.get(i))) {
-                for (int j = 0; j < tokens.size(); j++) {
-                    if (j != i) matrix[j][i] += 1;
+            if (usePosVerb && features.verbs[i]) {
+                if (implicitEdges != null) {
+                    implicitEdges.addBroadcastTarget(nodeOffset + i, 1);
+                } else {
+                    for (int j = 0; j < features.size; j++) {
+                        if (j != i) links.addEdge(j, i, 1);
+                    }
                 }
             }
         }
+    }
 
-        //DEBUG:        System.out.println(PageRank.matrixToString(matrix));
+    /**
+     * Returns the implicit edges of this thread's workspace with a partition for the prefixes and one for the suffixes,
+     * or null if the morphological rules and the verb rule add explicit links.
+     */
+    private ImplicitEdges clearImplicitEdges() {
+        if (!implicitRuleLinks || pageRankEngine != PageRank.Engine.CSR) return null;
+        ImplicitEdges implicitEdges = PAGE_RANK_WORKSPACE.get().clearImplicitEdges();
+        implicitEdges.addPartition(1.0);
+        implicitEdges.addPartition(1.0);
+        return implicitEdges;
+    }
 
-        final double[] scores = PageRank.forAdjacencyMatrix(SparseMatrix.Factory.importFromArray(matrix), 1.0,
-                PageRank.DEFAULT_CONVERGENCE, PageRank.DEFAULT_MAX_ITERATIONS);
+    /**
+     * Implies the links of the morphological rules: the tokens with equal prefixes (suffixes) form a class, and each
+     * token is linked to the tokens of all other classes, just like the explicit rule links all pairs of tokens with
+     * unequal prefixes (suffixes).
+     */
+    private void addAffixClasses(SentenceFeatures features, ImplicitEdges implicitEdges, int nodeOffset) {
+        implicitEdges.ensureVertexCount(nodeOffset + features.size);
+        for (int i = 0; i < features.size; i++) {
+            implicitEdges.setClass(PREFIX_PARTITION, nodeOffset + i, features.prefixIds[i]);
+            implicitEdges.setClass(SUFFIX_PARTITION, nodeOffset + i, features.suffixIds[i]);
+        }
+    }
+
+    /**
+     * Tokens of a sentence read from the CAS by the parser itself, which keep their features once computed, so that
+     * the ranking and the head search share them. The features live as long as the token list, which is dropped
+     * after the sentence has been parsed. The tokens also carry the similar terms prefetched for their document.
+     */
+    private static final class SentenceTokens extends ArrayList<Token> {
+        private static final long serialVersionUID = 1L;
 
-        LinkedList<RankedToken> ranking = new LinkedList<>();
+        private final transient Map<String, Set<String>> similarTerms;
+        private transient SentenceFeatures features = null;
+
+        SentenceTokens(Collection<Token> tokens, Map<String, Set<String>> similarTerms) {
+            super(tokens);
+            this.similarTerms = similarTerms;
+        }
+    }
+
+    /**
+     * Returns the features the construction rules and the head search need, which are computed in one pass over the
+     * tokens. They are kept with the tokens if the parser read them from the CAS itself, see {@link SentenceTokens};
+     * token lists passed in by subclasses get their features computed on every call.
+     */
+    private SentenceFeatures extractFeatures(ArrayList<Token> tokens) {
+        if (!(tokens instanceof SentenceTokens)) return computeFeatures(tokens);
+
+        SentenceTokens sentence = (SentenceTokens) tokens;
+        if (sentence.features == null) {
+            sentence.features = computeFeatures(tokens);
+        }
+        return sentence.features;
+    }
+
+    /**
+     * Computes the features of the given tokens. Whether each token is similar to its left neighbors is looked up in
+     * the thesaurus as well, so that the links can be built without the CAS or the thesaurus.
+     */
+    private SentenceFeatures computeFeatures(ArrayList<Token> tokens) {
+        SentenceFeatures features = new SentenceFeatures(tokens.size());
+        HashMap<String, Integer> words = new HashMap<>();
+        HashMap<String, Integer> prefixes = new HashMap<>();
+        HashMap<String, Integer> suffixes = new HashMap<>();
+        HashMap<String, Integer> posPrefixes = new HashMap<>();
+        String[] universalPosValues = getUniversalPosValuesForTokens(tokens);
         for (int i = 0; i < tokens.size(); i++) {
-            ranking.add(new RankedToken(scores[i], i, tokens.get(i)));
+            Token token = tokens.get(i);
+            String text = token.getCoveredText();
+            String pos = token.getPos() == null ? null : token.getPos().getPosValue();
+            features.wordIds[i] = SentenceFeatures.idOf(words, text);
+            features.functionWords[i] = functionWords.contains(text.toLowerCase());
+            features.verbs[i] = pos != null && pos.toLowerCase().startsWith("v");
+            features.prefixIds[i] = SentenceFeatures.idOf(prefixes, text.substring(0, Math.min(text.length(), 3)));
+            features.suffixIds[i] = SentenceFeatures.idOf(suffixes, text.substring(Math.max(0, text.length() - 3)));
+            features.posPrefixIds[i] = SentenceFeatures.idOf(posPrefixes, pos == null ? null : pos.substring(0, Math
+                    .min(pos.length(), 2)));
+            features.universalPosIds[i] = UniversalRules.tagId(universalPosValues[i]);
         }
 
-        Collections.sort(ranking, new Comparator<RankedToken>() {
-            @Override
-            public int compare(RankedToken rankedToken1, RankedToken rankedToken2) {
-                return -1 * Double.compare(rankedToken1.score, rankedToken2.score);
-            }
-        });
+        features.mwes = mweData.createMemberships(tokens, mweMaxTokens, mweMinScore);
 
-        return ranking;
+        if (dtRemoveSimilar) {
+            Map<String, Set<String>> similarTerms = tokens instanceof SentenceTokens ? ((SentenceTokens) tokens)
+                    .similarTerms : Collections.<String, Set<String>>emptyMap();
+            for (int i = 0; i < tokens.size(); i++) {
+                for (int distance = 1; distance <= 2 && distance <= i; distance++) {
+                    features.similarToLeft[distance - 1][i] = shouldRemoveSimilarDTTokens(similarTerms, tokens.get
+                            (i), tokens.get(i - distance));
+                }
+            }
+        }
+        return features;
     }
 
-    private boolean shouldRemoveLinks(ArrayList<Token> tokens, List<Set<Integer>> mweTokenMemberships, int i, int j) {
-        return shouldRemoveEqualPosTags(tokens.get(i), tokens.get(j)) || shouldRemoveSimilarDTTokens(tokens.get(i),
-                tokens.get(j)) || (mweRemoveLinks &&
-                !Collections.disjoint(mweTokenMemberships.get(i), mweTokenMemberships.get
-                        (j)));
+    /**
+     * Whether to remove the links between token i and its left neighbor at the given distance (1 or 2).
+     */
+    private boolean shouldRemoveLinks(SentenceFeatures features, int i, int distance) {
+        int j = i - distance;
+        return shouldRemoveEqualPosTags(features, i, j) || features.similarToLeft[distance - 1][i] ||
+                (mweRemoveLinks && features.mwes.shareExpression(i, j));
     }
 
-    private boolean shouldRemoveEqualPosTags(Token token1, Token token2) {
+    private boolean shouldRemoveEqualPosTags(SentenceFeatures features, int i, int j) {
         if (linkSamePosTag) return false;
-        String pos1 = token1.getPos().getPosValue();
-        String pos2 = token2.getPos().getPosValue();
-        return (pos1.substring(0, Math.min(pos1.length(), 2)).equals(pos2.substring(0, Math.min(pos2.length(), 2))));
+        return features.posPrefixIds[i] == features.posPrefixIds[j];
     }
 
-    private boolean shouldRemoveSimilarDTTokens(Token token1, Token token2) {
+    /**
+     * @param similarTerms the similar terms prefetched for the document, which are used before the cache
+     */
+    private boolean shouldRemoveSimilarDTTokens(Map<String, Set<String>> similarTerms, Token token1, Token token2) {
         if (!dtRemoveSimilar) return false;
         String term1 = createTerm(token1);
         String term2 = createTerm(token2);
-        if (getCachedSimilarTerms(term1).contains(term2)) {
+        if (getCachedSimilarTerms(similarTerms, term1).contains(term2)) {
             return true;
         }
         return false;
     }
 
-    private Set<String> getCachedSimilarTerms(String term) {
-        if (dtCache.containsKey(term)) {
-            return dtCache.get(term);
-        } else {
-            HashSet<String> similarTerms = new HashSet<>();
-            for (Order2 similarTerm : dt.getSimilarTerms(term)) {
-                similarTerms.add(similarTerm.key);
+    private Set<String> getCachedSimilarTerms(Map<String, Set<String>> similarTerms, String term) {
+        Set<String> prefetchedTerms = similarTerms.get(term);
+        if (prefetchedTerms != null) {
+            dtCache.countHit();
+            return prefetchedTerms;
+        }
+        return dtCache.get(term, similarTermsLoader);
+    }
+
+    /**
+     * Looks up the similar terms of all terms of the document that are not cached yet with as few database queries
+     * as possible, so that building the sentence graphs does not query the thesaurus term by term. The results are
+     * returned for the document and added to the cache for later documents. Since they are kept apart from the
+     * cache, they stay available while the document is parsed even if the cache is too small to hold them all or
+     * disabled. The statistics of the cache count the batched terms as misses and reads of the returned map as hits.
+     *
+     * @return the similar terms by term, or an empty map if the thesaurus is not used or can't look up batches
+     */
+    private Map<String, Set<String>> prefetchSimilarTerms(JCas jCas) {
+        if (!dtRemoveSimilar || !dt.hasBatchSimilarTerms()) return Collections.emptyMap();
+
+        LinkedHashSet<String> terms = new LinkedHashSet<>();
+        for (Token token : JCasUtil.select(jCas, Token.class)) {
+            String term = createTerm(token);
+            if (!dtCache.contains(term)) {
+                terms.add(term);
             }
-            return similarTerms;
         }
+        if (terms.isEmpty()) return Collections.emptyMap();
+
+        HashMap<String, Set<String>> similarTerms = new HashMap<>();
+        dtCache.countMisses(terms.size());
+        for (Map.Entry<String, List<Order2>> entry : dt.getBatchSimilarTerms(new ArrayList<>(terms)).entrySet()) {
+            Set<String> termSet = toTermSet(entry.getValue());
+            similarTerms.put(entry.getKey(), termSet);
+            dtCache.put(entry.getKey(), termSet);
+        }
+        return similarTerms;
+    }
+
+    private Set<String> toTermSet(List<Order2> similarTerms) {
+        // terms without similar terms are cached as well
+        if (similarTerms.isEmpty()) return Collections.emptySet();
+
+        HashSet<String> termSet = new HashSet<>();
+        for (Order2 similarTerm : similarTerms) {
+            termSet.add(similarTerm.key);
+        }
+        return Collections.unmodifiableSet(termSet);
     }
 
     private String createTerm(Token token) {
@@ -538,68 +1373,4 @@ public class JUnsupervisedParser extends JCasAnnotator_ImplBase {
         }
 
     }
-
-    private boolean isVerb(Token token) {
-        return !(token.getPos() == null || token.getPos().getPosValue() == null) && token.getPos().getPosValue()
-                .toLowerCase().startsWith("v");
-    }
-
-    private boolean suffixesInequal(Token token1, Token token2) {
-        String a = token1.getCoveredText();
-        String b = token2.getCoveredText();
-
-        return !(a.substring(Math.max(0, a.length() - 3)).equals(b.substring(Math.max(0, b.length() - 3))));
-    }
-
-    private boolean prefixesInequal(Token token1, Token token2) {
-        String a = token1.getCoveredText();
-        String b = token2.getCoveredText();
-
-        return !(a.substring(0, Math.min(a.length(), 3)).equals(b.substring(0, Math.min(b.length(), 3))));
-    }
-
-    private boolean isFunctionWord(Token token) {
-        return functionWords.contains(token.getCoveredText().toLowerCase());
-    }
-
-    protected class RankedToken {
-        double score;
-        int index;
-        Token token;
-
-        public RankedToken(double score, int index, Token token) {
-            this.score = score;
-            this.index = index;
-            this.token = token;
-        }
-
-        public double getScore() {
-            return score;
-        }
-
-        public void setScore(double score) {
-            this.score = score;
-        }
-
-        public int getIndex() {
-            return index;
-        }
-
-        public void setIndex(int index) {
-            this.index = index;
-        }
-
-        public Token getToken() {
-            return token;
-        }
-
-        public void setToken(Token token) {
-            this.token = token;
-        }
-
-        @Override
-        public String toString() {
-            return token.getCoveredText() + "@" + String.valueOf(index);
-        }
-    }
 }
@@ -28,8 +28,6 @@ package de.tudarmstadt.informatik.lt.sogaardparser;
 
 
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
-import org.apache.commons.lang.ObjectUtils;
-import org.apache.commons.lang.StringUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -41,17 +39,18 @@ import java.util.*;
 import java.util.logging.Logger;
 
 /**
- * A mapping from multi-word expressions to their druid scores obtained from some corpus.
+ * A mapping from multi-word expressions to their druid scores obtained from some corpus. The expressions are kept in
+ * a {@link MWETrie} over their words.
  */
 public class MWEData {
-    private Map<String, Double> entries;
+    private final MWETrie trie;
 
-    private MWEData(Map<String, Double> entries) {
-        this.entries = entries;
+    private MWEData(MWETrie trie) {
+        this.trie = trie;
     }
 
     public static MWEData empty() {
-        return new MWEData(Collections.<String, Double>emptyMap());
+        return new MWEData(new MWETrie.Builder().build());
     }
 
     /**
@@ -64,26 +63,41 @@ public class MWEData {
 
     /**
      * Reads in a file in DRUID data format, discards any unigrams, and stores multi word expressions together with
-     * their druid score.
+     * their druid score. If the file has been converted with {@link #convert(Path, Path, double)}, it is
+     * memory-mapped instead, which takes next to no time and heap; the minimum score was applied by the conversion
+     * then.
      *
      * @param file     the MWE file
      * @param minScore the minimum druid score to load a MWE
      */
     public MWEData(Path file, double minScore) throws IOException {
-        entries = new HashMap<>();
+        trie = MWETrie.isBinary(file) ? MWETrie.map(file) : readDruidFile(file, minScore).build();
+        if (trie.getNodeCount() == 1) {
+            Logger.getLogger(this.getClass().getName()).warning("Found no multiword expressions in file " + file
+                    .toString());
+        }
+    }
+
+    /**
+     * Converts a file in DRUID data format into a binary file that {@link #MWEData(Path, double)} memory-maps. Only
+     * multi word expressions with at least the given druid score are kept.
+     */
+    public static void convert(Path druidFile, Path binaryFile, double minScore) throws IOException {
+        readDruidFile(druidFile, minScore).build().write(binaryFile);
+    }
+
+    private static MWETrie.Builder readDruidFile(Path file, double minScore) throws IOException {
+        MWETrie.Builder builder = new MWETrie.Builder();
         try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
             String line = null;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split("\t");
                 if (Integer.valueOf(parts[0]) > 1 && Double.valueOf(parts[2]) >= minScore) {
-                    entries.put(parts[1], Double.valueOf(parts[2]));
+                    builder.add(parts[1].split(" ", -1), Double.valueOf(parts[2]));
                 }
             }
         }
-        if (entries.isEmpty()) {
-            Logger.getLogger(this.getClass().getName()).warning("Found no multiword expressions in file " + file
-                    .toString());
-        }
+        return builder;
     }
 
     /**
@@ -91,45 +105,54 @@ public class MWEData {
      * MWE is not in the database, 0.0 will be returned.
      */
     public double getScore(String... words) {
-        return (double) ObjectUtils.defaultIfNull(entries.get(StringUtils.join(words, " ")), 0.0);
+        int node = MWETrie.ROOT;
+        for (String word : words) {
+            node = trie.getChild(node, trie.getWordId(word));
+        }
+        return node == MWETrie.NONE || Double.isNaN(trie.getScore(node)) ? 0.0 : trie.getScore(node);
     }
 
     /**
-     * Creates a mapping from token id's to their muli-word-expression memberships. If multi-word-expression detection
-     * is disabled, each token will receive an empty set. Otherwise, will scan with an increasing window size (from 2
-     * till mweMaxTokens) and add any multi-word expression found as a new id to each member token's set.
+     * Finds the multi-word expressions in a sentence. Will walk the trie from each token along the following tokens,
+     * at most mweMaxTokens deep, and add any multi-word expression found as a new no. to each member token's
+     * memberships. If multi-word-expression detection is disabled or the sentence contains no multi-word expression,
+     * {@link MWEMemberships#EMPTY} is returned.
      * <p/>
-     * Example: "Barack Obama visited France" yields a list ({0}, {0}, {}, {}) indicating that "Barack" and "Obama"
-     * are both members of the same MWE.
+     * Example: "Barack Obama visited France" yields memberships where "Barack" and "Obama" share expression 0.
      *
      * @param tokens       a sentence
      * @param mweMaxTokens the window size
      * @param mweMinScore  the minimum druid score
      */
-    List<Set<Integer>> createMWESets(List<Token> tokens, int mweMaxTokens, double mweMinScore) {
-        ArrayList<Set<Integer>> mweMemberships = new ArrayList<>(tokens.size());
+    MWEMemberships createMemberships(List<Token> tokens, int mweMaxTokens, double mweMinScore) {
+        if (trie.getNodeCount() == 1 || mweMaxTokens < 2) {
+            return MWEMemberships.EMPTY;
+        }
+
+        int[] wordIds = new int[tokens.size()];
         for (int i = 0; i < tokens.size(); i++) {
-            mweMemberships.add(i, new HashSet<Integer>());
+            wordIds[i] = trie.getWordId(tokens.get(i).getCoveredText());
         }
 
-        if (!entries.isEmpty()) {
-            int mweId = 0;
-            for (int windowSize = 2; windowSize <= mweMaxTokens; windowSize++) {
-                for (int i = 0; i + windowSize <= tokens.size(); i++) {
-                    String[] possibleMWE = new String[windowSize];
-                    for (int j = 0; j < windowSize; j++) {
-                        possibleMWE[j] = tokens.get(i + j).getCoveredText();
+        MWEMemberships memberships = MWEMemberships.EMPTY;
+        int mweId = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            int node = MWETrie.ROOT;
+            for (int windowSize = 1; windowSize <= mweMaxTokens && i + windowSize <= tokens.size(); windowSize++) {
+                node = trie.getChild(node, wordIds[i + windowSize - 1]);
+                if (node == MWETrie.NONE) break;
+                // a single word is never an expression, even if the file claims it has more tokens
+                if (windowSize > 1 && trie.getScore(node) >= mweMinScore) {
+                    if (memberships == MWEMemberships.EMPTY) {
+                        memberships = MWEMemberships.create(tokens.size(), mweMaxTokens);
                     }
-                    if (getScore(possibleMWE) >= mweMinScore) {
-                        for (int j = 0; j < windowSize; j++) {
-                            mweMemberships.get(i + j).add(mweId);
-                        }
-                        mweId++;
+                    for (int j = 0; j < windowSize; j++) {
+                        memberships.add(i + j, mweId);
                     }
+                    mweId++;
                 }
             }
         }
-
-        return mweMemberships;
+        return memberships;
     }
 }
@@ -0,0 +1,50 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Converts a list of multi-word expressions in DRUID data format into a binary file that is memory-mapped when it is
+ * passed as {@link JUnsupervisedParser#PARAM_MWE_FILE}, see {@link MWEData#convert(java.nio.file.Path,
+ * java.nio.file.Path, double)}.
+ * <p/>
+ * Usage: MWELexiconConverter druid-file binary-file min-score
+ */
+public class MWELexiconConverter {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: MWELexiconConverter druid-file binary-file min-score");
+            System.exit(1);
+        }
+        MWEData.convert(Paths.get(args[0]), Paths.get(args[1]), Double.parseDouble(args[2]));
+    }
+}
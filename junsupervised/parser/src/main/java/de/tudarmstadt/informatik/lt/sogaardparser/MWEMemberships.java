@@ -0,0 +1,92 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+
+
+/**
+ * The multi-word expressions each token of a sentence belongs to, stored as a bitset per token, so that testing
+ * whether two tokens share an expression takes a few AND operations.
+ * <p/>
+ * The expressions are numbered in the order of their first token, and expression n sets bit n modulo the width of the
+ * bitsets. All expressions a token at most mweMaxTokens tokens away from another token can share with it start within
+ * 2 * mweMaxTokens tokens, and at most mweMaxTokens - 1 expressions start at each token. The bitsets are wide enough
+ * to give each of these expressions its own bit, so that the test is exact for such tokens (one long per token for up
+ * to 6 tokens per expression).
+ */
+final class MWEMemberships {
+    /**
+     * Memberships of a sentence without multi-word expressions.
+     */
+    static final MWEMemberships EMPTY = new MWEMemberships(0, new long[0]);
+
+    // longs per token
+    private final int width;
+    private final long[] bits;
+
+    private MWEMemberships(int width, long[] bits) {
+        this.width = width;
+        this.bits = bits;
+    }
+
+    /**
+     * Creates empty memberships for the given number of tokens and expressions of at most mweMaxTokens tokens.
+     */
+    static MWEMemberships create(int tokenCount, int mweMaxTokens) {
+        int width = (2 * mweMaxTokens * (mweMaxTokens - 1) + 63) / 64;
+        return new MWEMemberships(width, new long[tokenCount * width]);
+    }
+
+    /**
+     * Records that the token belongs to the expression with the given no.
+     */
+    void add(int token, int expression) {
+        int bit = expression % (64 * width);
+        bits[token * width + bit / 64] |= 1L << bit;
+    }
+
+    /**
+     * Returns whether the token belongs to any expression.
+     */
+    boolean isMember(int token) {
+        for (int k = token * width; k < (token + 1) * width; k++) {
+            if (bits[k] != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the tokens belong to the same expression. Exact for tokens at most mweMaxTokens tokens apart.
+     */
+    boolean shareExpression(int token1, int token2) {
+        for (int k = 0; k < width; k++) {
+            if ((bits[token1 * width + k] & bits[token2 * width + k]) != 0) return true;
+        }
+        return false;
+    }
+}
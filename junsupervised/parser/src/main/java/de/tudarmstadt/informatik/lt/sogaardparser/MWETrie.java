@@ -0,0 +1,487 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Multi-word expressions compiled into a trie over the ids of their words, so that all expressions starting at a
+ * token are found by walking from the root along the following tokens, without joining them into strings.
+ * <p/>
+ * The nodes are numbered in breadth-first order, with the children of each node sorted by word id. Every node but the
+ * root is the target of exactly one edge, so node n + 1 is the target of edge n and the trie fits into three arrays:
+ * the first edge of each node, the word of each edge and the score of each node. The words are numbered in the order
+ * of their UTF-8 encoding.
+ * <p/>
+ * A trie can be written to a binary file, see {@link #write(Path)}, which {@link #map(Path)} memory-maps without
+ * reading it. The file starts with {@link #MAGIC}, followed by the number of words, the number of nodes and the length
+ * of the dictionary. Then follow the start of each word in the dictionary and the end of the last one, the
+ * dictionary of the concatenated UTF-8 encoded words, padding to a multiple of 8 bytes, the scores, the first edges
+ * and the words of the edges. All numbers are big-endian.
+ * <p/>
+ * A trie is read-only and can be used by several threads at once.
+ */
+class MWETrie {
+    /**
+     * Returned for nodes and words that are not in the trie.
+     */
+    static final int NONE = -1;
+
+    static final int ROOT = 0;
+
+    /**
+     * First four bytes of a binary trie file, "MWE1" in ASCII.
+     */
+    static final int MAGIC = 0x4d574531;
+
+    private final WordIndex words;
+    // edges firstEdges[n] (inclusive) to firstEdges[n + 1] (exclusive) leave node n
+    private final IntBuffer firstEdges;
+    private final IntBuffer edgeWords;
+    // NaN if no expression ends at the node
+    private final DoubleBuffer scores;
+
+    private MWETrie(WordIndex words, IntBuffer firstEdges, IntBuffer edgeWords, DoubleBuffer scores) {
+        this.words = words;
+        this.firstEdges = firstEdges;
+        this.edgeWords = edgeWords;
+        this.scores = scores;
+    }
+
+    /**
+     * Number of nodes, including the root.
+     */
+    int getNodeCount() {
+        return scores.limit();
+    }
+
+    /**
+     * Returns the id of the given word, or {@link #NONE} if it is not part of any expression.
+     */
+    int getWordId(String word) {
+        return words.getId(word);
+    }
+
+    /**
+     * Returns the node reached from the given node by the given word, or {@link #NONE} if there is no such node.
+     */
+    int getChild(int node, int wordId) {
+        if (node == NONE || wordId == NONE) return NONE;
+        int low = firstEdges.get(node);
+        int high = firstEdges.get(node + 1) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int word = edgeWords.get(middle);
+            if (word < wordId) {
+                low = middle + 1;
+            } else if (word > wordId) {
+                high = middle - 1;
+            } else {
+                return middle + 1;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the score of the expression ending at the given node, or NaN if there is none.
+     */
+    double getScore(int node) {
+        return scores.get(node);
+    }
+
+    /**
+     * Writes the trie to a binary file, see the class description.
+     */
+    void write(Path file) throws IOException {
+        int wordCount = words.size();
+        byte[][] encodedWords = new byte[wordCount][];
+        int dictionaryLength = 0;
+        for (int id = 0; id < wordCount; id++) {
+            encodedWords[id] = words.getWord(id).getBytes(StandardCharsets.UTF_8);
+            dictionaryLength += encodedWords[id].length;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(wordCount);
+            out.writeInt(getNodeCount());
+            out.writeInt(dictionaryLength);
+            int offset = 0;
+            for (byte[] word : encodedWords) {
+                out.writeInt(offset);
+                offset += word.length;
+            }
+            out.writeInt(offset);
+            for (byte[] word : encodedWords) {
+                out.write(word);
+            }
+            for (int k = out.size(); k % 8 != 0; k++) {
+                out.writeByte(0);
+            }
+            for (int node = 0; node < getNodeCount(); node++) {
+                out.writeDouble(scores.get(node));
+            }
+            for (int node = 0; node <= getNodeCount(); node++) {
+                out.writeInt(firstEdges.get(node));
+            }
+            for (int edge = 0; edge < getNodeCount() - 1; edge++) {
+                out.writeInt(edgeWords.get(edge));
+            }
+        }
+    }
+
+    /**
+     * Returns whether the file starts with {@link #MAGIC}.
+     */
+    static boolean isBinary(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] magic = new byte[4];
+            int read = 0;
+            while (read < magic.length) {
+                int count = in.read(magic, read, magic.length - read);
+                if (count < 0) return false;
+                read += count;
+            }
+            return ByteBuffer.wrap(magic).getInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Memory-maps a binary trie file written by {@link #write(Path)}. Only the pages that are looked up are read, and
+     * they are kept outside of the heap.
+     *
+     * @throws IOException if the file cannot be read or is not a binary trie file
+     */
+    static MWETrie map(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Binary multi-word expression file is larger than 2 GiB: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a binary multi-word expression file: " + file);
+            }
+            int wordCount = buffer.getInt();
+            int nodeCount = buffer.getInt();
+            int dictionaryLength = buffer.getInt();
+            IntBuffer wordOffsets = slice(buffer, 4 * (wordCount + 1)).asIntBuffer();
+            ByteBuffer dictionary = slice(buffer, dictionaryLength);
+            buffer.position((buffer.position() + 7) / 8 * 8);
+            DoubleBuffer scores = slice(buffer, 8 * nodeCount).asDoubleBuffer();
+            IntBuffer firstEdges = slice(buffer, 4 * (nodeCount + 1)).asIntBuffer();
+            IntBuffer edgeWords = slice(buffer, 4 * (nodeCount - 1)).asIntBuffer();
+            return new MWETrie(new MappedWordIndex(wordOffsets, dictionary), firstEdges, edgeWords, scores);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException and IllegalArgumentException of truncated files
+            throw new IOException("Corrupt binary multi-word expression file: " + file, e);
+        }
+    }
+
+    /**
+     * Returns the next length bytes of the buffer and moves its position behind them.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * Maps the words to their ids and back.
+     */
+    private interface WordIndex {
+        int size();
+
+        int getId(String word);
+
+        String getWord(int id);
+    }
+
+    private static class HeapWordIndex implements WordIndex {
+        private final HashMap<String, Integer> ids;
+        private final String[] words;
+
+        HeapWordIndex(HashMap<String, Integer> ids, String[] words) {
+            this.ids = ids;
+            this.words = words;
+        }
+
+        @Override
+        public int size() {
+            return words.length;
+        }
+
+        @Override
+        public int getId(String word) {
+            Integer id = ids.get(word);
+            return id == null ? NONE : id;
+        }
+
+        @Override
+        public String getWord(int id) {
+            return words[id];
+        }
+    }
+
+    /**
+     * Finds the ids of the words by binary search in the sorted dictionary.
+     */
+    private static class MappedWordIndex implements WordIndex {
+        private final IntBuffer offsets;
+        private final ByteBuffer dictionary;
+
+        MappedWordIndex(IntBuffer offsets, ByteBuffer dictionary) {
+            this.offsets = offsets;
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public int size() {
+            return offsets.limit() - 1;
+        }
+
+        @Override
+        public int getId(String word) {
+            byte[] encoded = word.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = size() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compare(middle, encoded);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return NONE;
+        }
+
+        /**
+         * Compares the bytes of the word with the given id to the given bytes like {@link #compareUtf8(byte[],
+         * byte[])}.
+         */
+        private int compare(int id, byte[] encoded) {
+            int start = offsets.get(id);
+            int length = offsets.get(id + 1) - start;
+            for (int k = 0; k < Math.min(length, encoded.length); k++) {
+                int difference = (dictionary.get(start + k) & 0xff) - (encoded[k] & 0xff);
+                if (difference != 0) return difference;
+            }
+            return length - encoded.length;
+        }
+
+        @Override
+        public String getWord(int id) {
+            int start = offsets.get(id);
+            byte[] encoded = new byte[offsets.get(id + 1) - start];
+            for (int k = 0; k < encoded.length; k++) {
+                encoded[k] = dictionary.get(start + k);
+            }
+            return new String(encoded, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Compares UTF-8 encoded words byte by byte, treating the bytes as unsigned, which orders them by code point.
+     */
+    private static int compareUtf8(byte[] word1, byte[] word2) {
+        for (int k = 0; k < Math.min(word1.length, word2.length); k++) {
+            int difference = (word1[k] & 0xff) - (word2[k] & 0xff);
+            if (difference != 0) return difference;
+        }
+        return word1.length - word2.length;
+    }
+
+    /**
+     * Collects expressions and compiles them into a {@link MWETrie}.
+     */
+    static class Builder {
+        private final HashMap<String, Integer> wordIds = new HashMap<>();
+        // (parent node << 32 | word id) -> child node
+        private final HashMap<Long, Integer> children = new HashMap<>();
+        private int nodeCount = 1;
+        private int[] words = new int[16];
+        private int[] parents = new int[16];
+        private double[] scores = new double[16];
+
+        Builder() {
+            scores[ROOT] = Double.NaN;
+        }
+
+        /**
+         * Adds an expression, replacing the score of an expression with the same words that was added before.
+         */
+        Builder add(String[] expression, double score) {
+            int node = ROOT;
+            for (String word : expression) {
+                Integer wordId = wordIds.get(word);
+                if (wordId == null) {
+                    wordId = wordIds.size();
+                    wordIds.put(word, wordId);
+                }
+                Long key = (long) node << 32 | wordId;
+                Integer child = children.get(key);
+                if (child == null) {
+                    child = addNode(node, wordId);
+                    children.put(key, child);
+                }
+                node = child;
+            }
+            scores[node] = score;
+            return this;
+        }
+
+        private int addNode(int parent, int wordId) {
+            if (nodeCount == scores.length) {
+                int capacity = scores.length * 2;
+                words = Arrays.copyOf(words, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            words[nodeCount] = wordId;
+            parents[nodeCount] = parent;
+            scores[nodeCount] = Double.NaN;
+            return nodeCount++;
+        }
+
+        /**
+         * Renumbers the words in the order of their UTF-8 encoding and the nodes in breadth-first order, and compacts
+         * the edges.
+         */
+        MWETrie build() {
+            // sortedWords[new id] = old id
+            String[] oldWords = new String[wordIds.size()];
+            final byte[][] encodedWords = new byte[wordIds.size()][];
+            Integer[] sortedWords = new Integer[wordIds.size()];
+            for (Map.Entry<String, Integer> word : wordIds.entrySet()) {
+                oldWords[word.getValue()] = word.getKey();
+                encodedWords[word.getValue()] = word.getKey().getBytes(StandardCharsets.UTF_8);
+                sortedWords[word.getValue()] = word.getValue();
+            }
+            Arrays.sort(sortedWords, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer word1, Integer word2) {
+                    return compareUtf8(encodedWords[word1], encodedWords[word2]);
+                }
+            });
+            int[] newWordIds = new int[sortedWords.length];
+            String[] wordsById = new String[sortedWords.length];
+            HashMap<String, Integer> sortedWordIds = new HashMap<>(wordIds.size() * 4 / 3 + 1);
+            for (int id = 0; id < sortedWords.length; id++) {
+                newWordIds[sortedWords[id]] = id;
+                wordsById[id] = oldWords[sortedWords[id]];
+                sortedWordIds.put(wordsById[id], id);
+            }
+
+            // sort the nodes by depth, then by the new no. of their parent and then by word; the parents of a level
+            // have been renumbered before the level is sorted
+            int[] depths = new int[nodeCount];
+            int maxDepth = 0;
+            for (int node = 1; node < nodeCount; node++) {
+                // parents are always added before their children
+                depths[node] = depths[parents[node]] + 1;
+                maxDepth = Math.max(maxDepth, depths[node]);
+            }
+            int[] levelStarts = new int[maxDepth + 2];
+            for (int node = 0; node < nodeCount; node++) {
+                levelStarts[depths[node] + 1]++;
+            }
+            for (int depth = 0; depth <= maxDepth; depth++) {
+                levelStarts[depth + 1] += levelStarts[depth];
+            }
+            int[] order = new int[nodeCount];
+            int[] cursor = Arrays.copyOf(levelStarts, maxDepth + 1);
+            for (int node = 0; node < nodeCount; node++) {
+                order[cursor[depths[node]]++] = node;
+            }
+
+            // the key of a node is the new no. of its parent and its new word id, which is unique, so the node is
+            // found again from its sorted key; order[] maps new to old nos.
+            int[] newIds = new int[nodeCount];
+            long[] keys = new long[nodeCount];
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                int start = levelStarts[depth];
+                int end = levelStarts[depth + 1];
+                for (int k = start; k < end; k++) {
+                    int node = order[k];
+                    keys[k] = (long) newIds[parents[node]] << 32 | newWordIds[words[node]];
+                }
+                Arrays.sort(keys, start, end);
+                for (int k = start; k < end; k++) {
+                    int parent = order[(int) (keys[k] >>> 32)];
+                    int node = children.get((long) parent << 32 | sortedWords[(int) keys[k]]);
+                    order[k] = node;
+                    newIds[node] = k;
+                }
+            }
+
+            int[] firstEdges = new int[nodeCount + 1];
+            int[] edgeWords = new int[nodeCount - 1];
+            double[] newScores = new double[nodeCount];
+            for (int k = 0; k < nodeCount; k++) {
+                int node = order[k];
+                newScores[k] = scores[node];
+                if (k > 0) {
+                    edgeWords[k - 1] = newWordIds[words[node]];
+                    firstEdges[newIds[parents[node]] + 1]++;
+                }
+            }
+            for (int node = 0; node < nodeCount; node++) {
+                firstEdges[node + 1] += firstEdges[node];
+            }
+            return new MWETrie(new HeapWordIndex(sortedWordIds, wordsById), IntBuffer.wrap(firstEdges), IntBuffer
+                    .wrap(edgeWords), DoubleBuffer.wrap(newScores));
+        }
+    }
+}
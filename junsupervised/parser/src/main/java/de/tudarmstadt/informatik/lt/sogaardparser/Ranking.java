@@ -0,0 +1,150 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * Ranking of the tokens of a sentence, which is the order in which the tree construction step attaches them, and their
+ * scores, which break ties between heads at the same distance.
+ * <p/>
+ * Both are kept in primitive arrays: position p of the order holds the index of the p-th token, and the scores are
+ * indexed by token.
+ */
+public class Ranking {
+    // sub-arrays up to this length are sorted by insertion
+    private static final int INSERTION_SORT_MAX_LENGTH = 16;
+
+    private final int[] order;
+    private final double[] scores;
+
+    /**
+     * Number of iterations of the CSR PageRank run that produced this ranking, or -1 if it was produced otherwise.
+     * Counted per pass by the parser.
+     */
+    int pageRankIterations = -1;
+
+    /**
+     * Wraps the given arrays without copying them.
+     *
+     * @param order  the token indices in the order of the ranking, a permutation of 0 to n - 1
+     * @param scores the score of each token
+     */
+    public Ranking(int[] order, double[] scores) {
+        if (order.length != scores.length) {
+            throw new IllegalArgumentException(String.format("Expected a score for each of the %d tokens, got %d",
+                    order.length, scores.length));
+        }
+        this.order = order;
+        this.scores = scores;
+    }
+
+    /**
+     * Ranks tokens by descending score. Tokens with equal scores keep their order in the sentence.
+     */
+    public static Ranking byScore(double[] scores) {
+        return byScore(scores, 0, scores.length);
+    }
+
+    /**
+     * Ranks tokens by descending score, where the scores of the sentence start at the given offset, e.g. in the
+     * result of a batched PageRank run. Tokens with equal scores keep their order in the sentence. The scores are
+     * copied.
+     */
+    public static Ranking byScore(double[] scores, int offset, int length) {
+        double[] tokenScores = Arrays.copyOfRange(scores, offset, offset + length);
+        int[] order = new int[length];
+        for (int i = 0; i < length; i++) {
+            order[i] = i;
+        }
+        sortByScore(order, order.clone(), 0, length, tokenScores);
+        return new Ranking(order, tokenScores);
+    }
+
+    /**
+     * Stable merge sort of the token indices between from (inclusive) and to (exclusive) by descending score, using
+     * the same range of buffer, which must hold the same indices, as scratch space.
+     */
+    private static void sortByScore(int[] order, int[] buffer, int from, int to, double[] scores) {
+        if (to - from <= INSERTION_SORT_MAX_LENGTH) {
+            for (int i = from + 1; i < to; i++) {
+                int token = order[i];
+                int j = i;
+                for (; j > from && Double.compare(scores[order[j - 1]], scores[token]) < 0; j--) {
+                    order[j] = order[j - 1];
+                }
+                order[j] = token;
+            }
+            return;
+        }
+
+        // sort both halves into the buffer, then merge them back
+        int middle = (from + to) >>> 1;
+        sortByScore(buffer, order, from, middle, scores);
+        sortByScore(buffer, order, middle, to, scores);
+        for (int i = from, left = from, right = middle; i < to; i++) {
+            if (right == to || (left < middle && Double.compare(scores[buffer[left]], scores[buffer[right]]) >= 0)) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Number of ranked tokens.
+     */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * Returns the index of the token at the given position of the ranking.
+     */
+    public int getToken(int position) {
+        return order[position];
+    }
+
+    /**
+     * Returns the score of the token with the given index.
+     */
+    public double getScore(int token) {
+        return scores[token];
+    }
+
+    public int[] getOrder() {
+        return order;
+    }
+
+    /**
+     * Returns the scores indexed by token.
+     */
+    public double[] getScores() {
+        return scores;
+    }
+}
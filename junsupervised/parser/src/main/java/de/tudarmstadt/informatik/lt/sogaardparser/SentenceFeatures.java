@@ -0,0 +1,100 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Features of the tokens of one sentence, which are computed in a single pass before the graph is built so that the
+ * construction rules and the head search compare small integers instead of strings.
+ * <p/>
+ * Except for the universal POS ids, ids are only valid within their sentence: two tokens have the same id iff the
+ * strings the id was made from are equal.
+ */
+class SentenceFeatures {
+    /**
+     * Number of tokens in the sentence.
+     */
+    final int size;
+    /**
+     * Id of the covered text of each token.
+     */
+    final int[] wordIds;
+    final boolean[] functionWords;
+    /**
+     * Whether the POS tag of each token starts with v.
+     */
+    final boolean[] verbs;
+    /**
+     * Ids of the first and the last three letters of each token.
+     */
+    final int[] prefixIds;
+    final int[] suffixIds;
+    /**
+     * Id of the first two letters of each token's POS tag.
+     */
+    final int[] posPrefixIds;
+    /**
+     * Id of each token's universal POS tag, see {@link UniversalRules#tagId(String)}.
+     */
+    final int[] universalPosIds;
+    /**
+     * Multi-word expressions each token belongs to, see {@link MWEData#createMemberships(List, int, double)}.
+     */
+    MWEMemberships mwes;
+    /**
+     * Whether each token is similar to its first (index 0) and second (index 1) left neighbor according to the
+     * distributional thesaurus. Only looked up if similar terms are not linked.
+     */
+    final boolean[][] similarToLeft;
+
+    SentenceFeatures(int size) {
+        this.size = size;
+        wordIds = new int[size];
+        functionWords = new boolean[size];
+        verbs = new boolean[size];
+        prefixIds = new int[size];
+        suffixIds = new int[size];
+        posPrefixIds = new int[size];
+        universalPosIds = new int[size];
+        similarToLeft = new boolean[2][size];
+    }
+
+    /**
+     * Returns the id of the given key, which is the number of keys seen before if it is new. Null is a valid key.
+     */
+    static int idOf(Map<String, Integer> ids, String key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = ids.size();
+            ids.put(key, id);
+        }
+        return id;
+    }
+}
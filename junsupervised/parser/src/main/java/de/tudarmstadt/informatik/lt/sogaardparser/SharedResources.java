@@ -0,0 +1,162 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Read-only resources of the parser, like the function words or the multi-word expressions, which are loaded once per
+ * JVM and shared by all parser instances that use the same file. Each instance acquires its resources when it is
+ * initialized and releases them when it is destroyed. A resource is dropped as soon as the last instance has released
+ * it, so that it is read again if the file is used later on.
+ * <p/>
+ * The resources are used by several threads at once and must either be thread-safe or not be modified after they
+ * have been loaded.
+ */
+final class SharedResources {
+    /**
+     * Loads a resource that is not shared yet.
+     */
+    interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private static final HashMap<String, SharedResource> RESOURCES = new HashMap<>();
+
+    private SharedResources() {
+    }
+
+    /**
+     * Creates the key of a resource loaded from the given file with the given parameters. Relative paths are resolved
+     * against the working directory, so that different spellings of a path share the resource.
+     *
+     * @param type identifies the kind of resource, since the same file may be loaded in different ways
+     */
+    static String key(String type, String file, Object... parameters) {
+        StringBuilder key = new StringBuilder(type).append(':');
+        key.append(file == null ? "" : Paths.get(file).toAbsolutePath().normalize().toString());
+        for (Object parameter : parameters) {
+            key.append('\t').append(parameter);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the resource with the given key and increments its reference count. If no instance holds the resource
+     * at the moment, it is loaded with the given loader first. The loader runs on the calling thread without holding
+     * the lock of the registry, so resources with different keys are loaded concurrently, while threads acquiring the
+     * same resource wait until it has been loaded.
+     *
+     * @throws IOException if the loader fails or the thread is interrupted while waiting for it, in which case the
+     *                     reference count is not changed and the next acquisition loads the resource again
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T acquire(String key, final Loader<T> loader) throws IOException {
+        SharedResource resource;
+        boolean load = false;
+        synchronized (RESOURCES) {
+            resource = RESOURCES.get(key);
+            if (resource == null) {
+                resource = new SharedResource(new FutureTask<>(new Callable<Object>() {
+                    @Override
+                    public Object call() throws IOException {
+                        return loader.load();
+                    }
+                }));
+                RESOURCES.put(key, resource);
+                load = true;
+            }
+            resource.references++;
+        }
+
+        if (load) {
+            resource.value.run();
+        }
+
+        try {
+            return (T) resource.value.get();
+        } catch (InterruptedException e) {
+            abandon(key, resource, false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + key);
+        } catch (ExecutionException e) {
+            abandon(key, resource, true);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Takes back the reference of an acquisition that did not succeed. A resource that failed to load is dropped at
+     * once, so that the next acquisition tries again.
+     */
+    private static void abandon(String key, SharedResource resource, boolean failed) {
+        synchronized (RESOURCES) {
+            resource.references--;
+            if ((failed || resource.references == 0) && RESOURCES.get(key) == resource) {
+                RESOURCES.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Decrements the reference count of the resource with the given key and drops the resource if it is no longer
+     * used.
+     */
+    static void release(String key) {
+        synchronized (RESOURCES) {
+            SharedResource resource = RESOURCES.get(key);
+            if (resource == null) {
+                throw new IllegalStateException("Released resource that has not been acquired: " + key);
+            }
+            if (--resource.references == 0) {
+                RESOURCES.remove(key);
+            }
+        }
+    }
+
+    private static class SharedResource {
+        final FutureTask<Object> value;
+        int references = 0;
+
+        SharedResource(FutureTask<Object> value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cache for the similar terms a distributional thesaurus returns for a term, which evicts the least recently used
+ * terms once it is full. Terms without similar terms are cached as well, so that they are not looked up again.
+ * <p/>
+ * The cache is thread-safe and shared by all parser instances using the same thesaurus, see {@link SharedResources}.
+ * Threads asking for a term that is being looked up at the moment wait for that lookup instead of starting their
+ * own, so that every term is looked up only once.
+ */
+class SimilarTermsCache {
+    /**
+     * Looks up the similar terms of a term that is not cached.
+     */
+    interface Loader {
+        Set<String> load(String term);
+    }
+
+    private final int capacity;
+    private final LeastRecentlyUsedMap entries;
+    private final HashMap<String, FutureTask<Set<String>>> lookups = new HashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param capacity the maximum number of terms to cache
+     */
+    SimilarTermsCache(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("Cache capacity must not be negative, got " + capacity);
+        this.capacity = capacity;
+        entries = new LeastRecentlyUsedMap(capacity);
+    }
+
+    /**
+     * Returns the similar terms of the given term, looking them up with the given loader and caching them if they are
+     * not cached yet. If another thread is looking up the term at the moment, waits for its result. Only the lookups
+     * count as misses.
+     */
+    Set<String> get(final String term, final Loader loader) {
+        FutureTask<Set<String>> lookup;
+        boolean load = false;
+        synchronized (this) {
+            Set<String> similarTerms = entries.get(term);
+            if (similarTerms != null) {
+                hits++;
+                return similarTerms;
+            }
+
+            lookup = lookups.get(term);
+            if (lookup == null) {
+                lookup = new FutureTask<>(new Callable<Set<String>>() {
+                    @Override
+                    public Set<String> call() {
+                        Set<String> similarTerms = loader.load(term);
+                        put(term, similarTerms);
+                        return similarTerms;
+                    }
+                });
+                lookups.put(term, lookup);
+                load = true;
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+
+        if (load) {
+            try {
+                lookup.run();
+            } finally {
+                synchronized (this) {
+                    lookups.remove(term);
+                }
+            }
+        }
+        return await(lookup);
+    }
+
+    /**
+     * Waits for the given lookup without giving up on interrupts, which are passed on to the caller afterwards.
+     */
+    private static Set<String> await(FutureTask<Set<String>> lookup) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return lookup.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Whether the similar terms of the given term are cached. Unlike {@link #get(String, Loader)}, this neither counts
+     * as a hit or miss nor marks the term as recently used.
+     */
+    synchronized boolean contains(String term) {
+        return entries.containsKey(term);
+    }
+
+    /**
+     * Caches the similar terms of the given term, which must not be modified afterwards.
+     */
+    synchronized void put(String term, Set<String> similarTerms) {
+        if (capacity > 0) entries.put(term, similarTerms);
+    }
+
+    /**
+     * Counts a lookup that was answered without querying the thesaurus, but outside this cache, like a term the
+     * parser prefetched for the current document.
+     */
+    synchronized void countHit() {
+        hits++;
+    }
+
+    /**
+     * Counts terms looked up in the thesaurus outside this cache, like the terms of a batch query.
+     */
+    synchronized void countMisses(int count) {
+        misses += count;
+    }
+
+    /**
+     * Number of lookups answered without querying the thesaurus.
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of terms looked up in the thesaurus, whether one by one or in batches.
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return entries.evictions;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Access ordered map that drops its least recently used entry once it holds more than the given number of
+     * entries.
+     */
+    private static final class LeastRecentlyUsedMap extends LinkedHashMap<String, Set<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private long evictions = 0;
+
+        LeastRecentlyUsedMap(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+            if (size() <= capacity) return false;
+            evictions++;
+            return true;
+        }
+    }
+}
@@ -26,22 +26,66 @@ package de.tudarmstadt.informatik.lt.sogaardparser;
  * #L%
  */
 
-import java.util.HashSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
 
 /**
  * Container for universal dependency rules from Fig. 5 (Søgaard 2012).
+ * <p/>
+ * The rules are compiled into a matrix over ids of the universal tagset by Petrov, Das and McDonald (2011), see
+ * {@link #tagId(String)}, so that they can be looked up without creating any objects.
  */
 public class UniversalRules {
-    // mapping from head to dependent
-    private HashSet<Pair<String, String>> rules = new HashSet<>();
+    private static final String[] TAGS = {"VERB", "NOUN", "PRON", "ADJ", "ADV", "ADP", "CONJ", "DET", "NUM", "PRT",
+            "X", "."};
+    private static final HashMap<String, Integer> TAG_IDS = new HashMap<>();
+
+    static {
+        for (int id = 0; id < TAGS.length; id++) {
+            TAG_IDS.put(TAGS[id], id);
+        }
+    }
+
+    /**
+     * Id of all POS outside the universal tagset and of missing POS. No rule applies to them.
+     */
+    public static final int OTHER = TAGS.length;
+
+    /**
+     * Number of ids, i.e. the universal tags and {@link #OTHER}.
+     */
+    public static final int TAG_COUNT = TAGS.length + 1;
+
+    // rules[head][dependent]
+    private final boolean[][] rules = new boolean[TAG_COUNT][TAG_COUNT];
+
+    /**
+     * Returns the id of the given universal POS, ignoring case, or {@link #OTHER} if it is null or not in the
+     * universal tagset.
+     */
+    public static int tagId(String pos) {
+        if (pos == null) return OTHER;
+        Integer id = TAG_IDS.get(pos);
+        if (id == null) id = TAG_IDS.get(pos.toUpperCase());
+        return id == null ? OTHER : id;
+    }
 
     /**
-     * Adds a new universal dependency rule spanning from headPos to dependentPos. The POS should be
-     * from the universal tagset  by Petrov, Das and McDonald (2011). Cases will be normalized.
+     * Adds a new universal dependency rule spanning from headPos to dependentPos. The POS must be from the universal
+     * tagset by Petrov, Das and McDonald (2011). Cases will be normalized.
      */
     public void addRule(String headPos, String dependentPos) {
         if (headPos == null || dependentPos == null) throw new IllegalArgumentException("POS may not be null");
-        rules.add(new Pair<String, String>(headPos.toUpperCase(), dependentPos.toUpperCase()));
+        int head = tagId(headPos);
+        int dependent = tagId(dependentPos);
+        if (head == OTHER || dependent == OTHER) {
+            throw new IllegalArgumentException(String.format("Rule %s -> %s uses a POS outside the universal tagset",
+                    headPos, dependentPos));
+        }
+        rules[head][dependent] = true;
     }
 
     /**
@@ -51,8 +95,16 @@ public class UniversalRules {
      * This operation is thread-safe if no new rules are added during execution.
      */
     public boolean matchesRule(String headPos, String dependentPos) {
-        if (headPos == null || dependentPos == null) return false;
-        return rules.contains(new Pair<String, String>(headPos.toUpperCase(), dependentPos.toUpperCase()));
+        return matchesRule(tagId(headPos), tagId(dependentPos));
+    }
+
+    /**
+     * Returns whether their is a rule where the first POS acts as the head for the second POS, given by their ids.
+     *
+     * @see #matchesRule(String, String)
+     */
+    public boolean matchesRule(int headTagId, int dependentTagId) {
+        return rules[headTagId][dependentTagId];
     }
 
     /**
@@ -78,32 +130,25 @@ public class UniversalRules {
         addRule("ADJ", "ADV");
     }
 
-    private class Pair<K, V> {
-        K left;
-        V right;
-
-        public Pair(K left, V right) {
-            this.left = left;
-            this.right = right;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            Pair<?, ?> pair = (Pair<?, ?>) o;
-
-            if (left != null ? !left.equals(pair.left) : pair.left != null) return false;
-            return !(right != null ? !right.equals(pair.right) : pair.right != null);
-
-        }
+    /**
+     * Loads rules from a file with one blank space separated pair of head and dependent POS per line. Empty lines and
+     * lines starting with # are skipped.
+     *
+     * @throws IllegalArgumentException if a line is not a pair of universal POS
+     */
+    public void loadRules(Path file) throws IOException {
+        int lineNo = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
 
-        @Override
-        public int hashCode() {
-            int result = left != null ? left.hashCode() : 0;
-            result = 31 * result + (right != null ? right.hashCode() : 0);
-            return result;
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(String.format("Expected head and dependent POS in line %d of %s, " +
+                        "got '%s'", lineNo, file, line));
+            }
+            addRule(parts[0], parts[1]);
         }
     }
 }
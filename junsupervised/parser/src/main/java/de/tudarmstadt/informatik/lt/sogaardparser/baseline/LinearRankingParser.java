@@ -27,13 +27,14 @@ package de.tudarmstadt.informatik.lt.sogaardparser.baseline;
  */
 
 
+import de.tudarmstadt.informatik.lt.pagerank.CsrGraph;
 import de.tudarmstadt.informatik.lt.sogaardparser.JUnsupervisedParser;
+import de.tudarmstadt.informatik.lt.sogaardparser.Ranking;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
 
 import java.util.ArrayList;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Variant of {@link JUnsupervisedParser} that uses a ranking in the order of the tokens.
@@ -46,19 +47,27 @@ public class LinearRankingParser extends JUnsupervisedParser {
     private boolean invertRanking;
 
     @Override
-    protected Deque<JUnsupervisedParser.RankedToken> rankTokens(ArrayList<Token> tokens, int[][] matrix) {
-        LinkedList<JUnsupervisedParser.RankedToken> ranking = new LinkedList<>();
+    protected List<Ranking> rankSentences(List<ArrayList<Token>> sentences, List<CsrGraph.Builder> links,
+                                          List<double[]> initialScores) {
+        return rankSentencesIndividually(sentences, links, initialScores);
+    }
+
+    @Override
+    protected Ranking rankTokens(ArrayList<Token> tokens, CsrGraph.Builder links, double[] initialScores) {
+        int[] order = new int[tokens.size()];
+        double[] scores = new double[tokens.size()];
 
         for (int i = 0; i < tokens.size(); i++) {
 
             if (invertRanking) {
-                ranking.addFirst(new JUnsupervisedParser.RankedToken(tokens.size() - i, i, tokens.get
-                        (i)));
+                order[tokens.size() - 1 - i] = i;
+                scores[i] = tokens.size() - i;
             } else {
-                ranking.add(new JUnsupervisedParser.RankedToken(i, i, tokens.get(i)));
+                order[i] = i;
+                scores[i] = i;
             }
         }
 
-        return ranking;
+        return new Ranking(order, scores);
     }
 }
@@ -27,7 +27,9 @@ package de.tudarmstadt.informatik.lt.sogaardparser.baseline;
  */
 
 
+import de.tudarmstadt.informatik.lt.pagerank.CsrGraph;
 import de.tudarmstadt.informatik.lt.sogaardparser.JUnsupervisedParser;
+import de.tudarmstadt.informatik.lt.sogaardparser.Ranking;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
 import org.apache.uima.fit.util.JCasUtil;
@@ -40,7 +42,13 @@ import java.util.*;
  */
 public class OracleParser extends JUnsupervisedParser {
     @Override
-    protected Deque<RankedToken> rankTokens(ArrayList<Token> tokens, int[][] matrix) {
+    protected List<Ranking> rankSentences(List<ArrayList<Token>> sentences, List<CsrGraph.Builder> links,
+                                          List<double[]> initialScores) {
+        return rankSentencesIndividually(sentences, links, initialScores);
+    }
+
+    @Override
+    protected Ranking rankTokens(ArrayList<Token> tokens, CsrGraph.Builder links, double[] initialScores) {
         HashMap<Token, TreeNode> tokenToTreeNode = new HashMap<>();
         LinkedList<TreeNode> roots = new LinkedList<>(); // some languages (like Dutch) make use of multiple roots
         LinkedList<TreeNode> tokensWithoutDependencies = new LinkedList<>();
@@ -87,7 +95,9 @@ public class OracleParser extends JUnsupervisedParser {
         assert tokenToTreeNode.size() == tokens.size();
 
         // perform ranking
-        LinkedList<RankedToken> ranking = new LinkedList<>();
+        int[] order = new int[tokens.size()];
+        double[] scores = new double[tokens.size()];
+        int ranked = 0;
         LinkedList<Pair<TreeNode, Double>> queue = new LinkedList<>();
         for (TreeNode root : roots) {
             queue.add(new Pair<TreeNode, Double>(root, 1000.0));
@@ -97,19 +107,21 @@ public class OracleParser extends JUnsupervisedParser {
             Pair<TreeNode, Double> nodePair = queue.pop();
             double pageRank = nodePair.right;
             TreeNode node = nodePair.left;
-            ranking.add(new RankedToken(pageRank, node.index, node.token));
+            order[ranked++] = node.index;
+            scores[node.index] = pageRank;
             for (TreeNode child : node.children) {
                 queue.add(new Pair<TreeNode, Double>(child, pageRank - 1));
             }
         }
 
         for (TreeNode node : tokensWithoutDependencies) {
-            ranking.add(new RankedToken(0.0, node.index, node.token));
+            order[ranked++] = node.index;
+            scores[node.index] = 0.0;
         }
 
-        assert ranking.size() == tokens.size() : String.format("Ranking has %d tokens, but should be %d, tree 1 is %s", ranking.size(), tokens.size(), roots.get(0).printTree(""));
+        assert ranked == tokens.size() : String.format("Ranking has %d tokens, but should be %d, tree 1 is %s", ranked, tokens.size(), roots.get(0).printTree(""));
 
-        return ranking;
+        return new Ranking(order, scores);
     }
 
     private class TreeNode {
@@ -27,7 +27,9 @@ package de.tudarmstadt.informatik.lt.sogaardparser.baseline;
  */
 
 
+import de.tudarmstadt.informatik.lt.pagerank.CsrGraph;
 import de.tudarmstadt.informatik.lt.sogaardparser.JUnsupervisedParser;
+import de.tudarmstadt.informatik.lt.sogaardparser.Ranking;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 import java.util.*;
@@ -39,19 +41,18 @@ public class RandomizedRankingParser extends JUnsupervisedParser {
     private Random random = new Random();
 
     @Override
-    protected Deque<RankedToken> rankTokens(ArrayList<Token> tokens, int[][] matrix) {
-        LinkedList<RankedToken> ranking = new LinkedList<>();
+    protected List<Ranking> rankSentences(List<ArrayList<Token>> sentences, List<CsrGraph.Builder> links,
+                                          List<double[]> initialScores) {
+        return rankSentencesIndividually(sentences, links, initialScores);
+    }
+
+    @Override
+    protected Ranking rankTokens(ArrayList<Token> tokens, CsrGraph.Builder links, double[] initialScores) {
+        double[] scores = new double[tokens.size()];
         for (int i = 0; i < tokens.size(); i++) {
-            ranking.add(new RankedToken(random.nextDouble(), i, tokens.get(i)));
+            scores[i] = random.nextDouble();
         }
 
-        Collections.sort(ranking, new Comparator<RankedToken>() {
-            @Override
-            public int compare(RankedToken rankedToken1, RankedToken rankedToken2) {
-                return -1 * Double.compare(rankedToken1.getScore(), rankedToken2.getScore());
-            }
-        });
-
-        return ranking;
+        return Ranking.byScore(scores);
     }
 }
@@ -80,6 +80,7 @@ public class DatabaseThesaurusConfiguration {
     public String similarTermsTopQuery;
     public String similarTermsGtScoreQuery;
     public String similarTermScoreQuery;
+    public String batchSimilarTermsQuery;
 
     public String similarContextsQuery;
     public String similarContextsTopQuery;
@@ -273,6 +274,10 @@ public class DatabaseThesaurusConfiguration {
         return replaceTables(similarTermsQuery);
     }
 
+    public String getBatchSimilarTermsQuery(String inClause) {
+        return replaceTables(batchSimilarTermsQuery).replace("[IN-CLAUSE]", inClause);
+    }
+
     public String getTermsCountQuery() {
         return replaceTables(termsCountQuery);
     }
@@ -29,22 +29,25 @@ package org.jobimtext.api.db;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.jobimtext.api.IThesaurus;
+import org.jobimtext.api.struct.Order2;
 
 
 public class DatabaseThesaurus extends DatabaseResource
         implements
         IThesaurus<String, String, ResultSet, ResultSet, ResultSet, ResultSet, ResultSet> {
 
-    /*private static final int SINGLE_BATCH = 1;
+    private static final int SINGLE_BATCH = 1;
     private static final int SMALL_BATCH = 4;
     private static final int MEDIUM_BATCH = 11;
     private static final int LARGE_BATCH = 51;
     private static final int LARGER_BATCH = 117;
-    private static final int MAX_BATCH = 200;*/
+    private static final int MAX_BATCH = 200;
 
     @Override
     public ResultSet getSimilarTerms(String key) {
@@ -236,7 +239,7 @@ public class DatabaseThesaurus extends DatabaseResource
         return score;
     }
 
-    /*private String buildBatchInClause(int batchSize) {
+    private String buildBatchInClause(int batchSize) {
         StringBuilder sb = new StringBuilder();
 
         sb.append("(");
@@ -247,7 +250,79 @@ public class DatabaseThesaurus extends DatabaseResource
         sb.append(")");
 
         return sb.toString();
-    }*/
+    }
+
+    /**
+     * Chooses the size of the next batch among a few fixed sizes, so that the database only sees a handful of
+     * distinct statements.
+     */
+    private int getBatchSize(int totalNumberOfValuesLeftToBatch) {
+        int batchSize = SINGLE_BATCH;
+        if (totalNumberOfValuesLeftToBatch >= MAX_BATCH) {
+            batchSize = MAX_BATCH;
+        } else if (totalNumberOfValuesLeftToBatch >= LARGER_BATCH) {
+            batchSize = LARGER_BATCH;
+        } else if (totalNumberOfValuesLeftToBatch >= LARGE_BATCH) {
+            batchSize = LARGE_BATCH;
+        } else if (totalNumberOfValuesLeftToBatch >= MEDIUM_BATCH) {
+            batchSize = MEDIUM_BATCH;
+        } else if (totalNumberOfValuesLeftToBatch >= SMALL_BATCH) {
+            batchSize = SMALL_BATCH;
+        }
+        return batchSize;
+    }
+
+    /**
+     * Returns the similar terms of all given keys, querying up to {@link #MAX_BATCH} keys at once with the
+     * batchSimilarTermsQuery of the configuration. The query has to return the key, the similar term and its score
+     * for all keys in its [IN-CLAUSE], ordered by descending score for each key. Keys without similar terms are mapped
+     * to an empty list.
+     */
+    public Map<String, List<Order2>> getBatchSimilarTerms(List<String> keys) {
+        HashMap<String, List<Order2>> result = new HashMap<String, List<Order2>>();
+
+        // initialize in case we get empty rows
+        for (String key : keys) {
+            result.put(key, new ArrayList<Order2>());
+        }
+
+        int totalNumberOfValuesLeftToBatch = keys.size();
+        String sql = null;
+        try {
+            int currentIndex = 0;
+            while (totalNumberOfValuesLeftToBatch > 0) {
+                int batchSize = getBatchSize(totalNumberOfValuesLeftToBatch);
+                totalNumberOfValuesLeftToBatch -= batchSize;
+
+                sql = getDatabaseConfiguration().getBatchSimilarTermsQuery(buildBatchInClause(batchSize));
+                PreparedStatement ps = getDatabaseConnection().getConnection().prepareStatement(sql);
+                try {
+                    for (int i = 0; i < batchSize; i++) {
+                        ps.setString(i + 1, keys.get(currentIndex + i));
+                    }
+                    currentIndex = currentIndex + batchSize;
+
+                    ResultSet set = ps.executeQuery();
+                    try {
+                        while (set.next()) {
+                            List<Order2> similarTerms = result.get(set.getString(1));
+                            if (similarTerms != null) {
+                                similarTerms.add(new Order2(set.getString(2), set.getDouble(3)));
+                            }
+                        }
+                    } finally {
+                        set.close();
+                    }
+                } finally {
+                    ps.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Can't run SQL statement " + sql, e);
+        }
+
+        return result;
+    }
 
     /*@Override
     public Map<String, Double> getBatchTermContextsScore(List<String> keys, String context) {
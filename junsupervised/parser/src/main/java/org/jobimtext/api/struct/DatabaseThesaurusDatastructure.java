@@ -149,6 +149,18 @@ public class DatabaseThesaurusDatastructure extends DatabaseResource implements
 		}
 	}
 
+	/**
+	 * Returns the similar terms of all given keys with as few queries as possible. Only available if the configuration
+	 * has a batchSimilarTermsQuery, see {@link #hasBatchSimilarTerms()}.
+	 */
+	public Map<String, List<Order2>> getBatchSimilarTerms(List<String> keys) {
+		return dbThesaurus.getBatchSimilarTerms(keys);
+	}
+
+	public boolean hasBatchSimilarTerms() {
+		return getDatabaseConfiguration().batchSimilarTermsQuery != null;
+	}
+
 	@Override
 	public DatabaseConnection getDatabaseConnection() {
 		return dbThesaurus.getDatabaseConnection();
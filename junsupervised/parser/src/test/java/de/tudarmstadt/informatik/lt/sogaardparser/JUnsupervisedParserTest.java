@@ -0,0 +1,215 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import de.tudarmstadt.informatik.lt.pagerank.CsrGraph;
+import de.tudarmstadt.informatik.lt.sogaardparser.type.UniversalPOS;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class JUnsupervisedParserTest {
+    private static final String[] POS_TAGS = {"NN", "VB", "DT", "IN", "JJ", "RB", "CD", "."};
+    private static final String[] UNIVERSAL_POS_TAGS = {"NOUN", "VERB", "DET", "ADP", "ADJ", "ADV", "NUM", "."};
+
+    // the ranking of each sentence, keyed by the begin of the sentence
+    private static final Map<Integer, Ranking> RANKINGS = new ConcurrentHashMap<>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Ranks the tokens by random scores with many ties and records the rankings, so that the heads can be checked
+     * against them.
+     */
+    public static class RecordingParser extends JUnsupervisedParser {
+        @Override
+        protected List<Ranking> rankSentences(List<ArrayList<Token>> sentences, List<CsrGraph.Builder> links,
+                                              List<double[]> initialScores) {
+            return rankSentencesIndividually(sentences, links, initialScores);
+        }
+
+        @Override
+        protected Ranking rankTokens(ArrayList<Token> tokens, CsrGraph.Builder links, double[] initialScores) {
+            Random random = new Random(tokens.get(0).getBegin());
+            double[] scores = new double[tokens.size()];
+            for (int i = 0; i < tokens.size(); i++) {
+                scores[i] = random.nextInt(3);
+            }
+
+            Ranking ranking = Ranking.byScore(scores);
+            RANKINGS.put(tokens.get(0).getBegin(), ranking);
+            return ranking;
+        }
+    }
+
+    /**
+     * The head search as it was before the placed heads were indexed: every placed head is a candidate. Heads
+     * matching a rule or sharing a multi-word expression are preferred, then the nearest head, then the head with
+     * the higher score, and then the head placed first.
+     */
+    private static int[] expectedHeads(Ranking ranking, String[] universalPos, List<Set<Integer>> mwes,
+                                       UniversalRules rules) {
+        int[] heads = new int[ranking.size()];
+        List<Integer> placed = new ArrayList<>();
+        heads[ranking.getToken(0)] = ranking.getToken(0);
+        placed.add(ranking.getToken(0));
+
+        for (int position = 1; position < ranking.size(); position++) {
+            int dependent = ranking.getToken(position);
+            boolean bestMatches = false;
+            int bestHead = -1;
+            for (int candidate : placed) {
+                boolean matches = rules.matchesRule(universalPos[candidate], universalPos[dependent]) || !Collections
+                        .disjoint(mwes.get(candidate), mwes.get(dependent));
+                if (bestHead < 0 || (!bestMatches && matches)) {
+                    bestMatches = matches;
+                    bestHead = candidate;
+                } else if (bestMatches == matches) {
+                    int distance = Math.abs(candidate - dependent);
+                    int bestDistance = Math.abs(bestHead - dependent);
+                    if (distance < bestDistance || (distance == bestDistance && ranking.getScore(candidate) > ranking
+                            .getScore(bestHead))) {
+                        bestHead = candidate;
+                    }
+                }
+            }
+            heads[dependent] = bestHead;
+            placed.add(dependent);
+        }
+        return heads;
+    }
+
+    private void checkHeads(boolean useUniversalRules) throws Exception {
+        Random random = new Random(useUniversalRules ? 1 : 2);
+        Path functionWords = folder.newFile().toPath();
+        Files.write(functionWords, Collections.singletonList("a"), StandardCharsets.UTF_8);
+        Path mweFile = folder.newFile().toPath();
+        Map<String, Double> expressions = MWEDataTest.writeDruidFile(random, mweFile);
+        UniversalRules rules = new UniversalRules();
+        if (useUniversalRules) rules.loadDefaultRules();
+
+        AnalysisEngine parser = AnalysisEngineFactory.createEngine(RecordingParser.class,
+                JUnsupervisedParser.PARAM_FUNCTION_WORDS_FILE, functionWords.toString(),
+                JUnsupervisedParser.PARAM_MWE_FILE, mweFile.toString(),
+                JUnsupervisedParser.PARAM_USE_UNIVERSAL_RULES, useUniversalRules);
+        JCas jCas = JCasFactory.createJCas();
+        for (int document = 0; document < 50; document++) {
+            jCas.reset();
+            RANKINGS.clear();
+            List<String[]> sentences = new ArrayList<>();
+            List<String[]> sentencesPos = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            int sentenceCount = 1 + random.nextInt(5);
+            for (int s = 0; s < sentenceCount; s++) {
+                String[] words = MWEDataTest.randomWords(random, 1 + random.nextInt(40));
+                String[] universalPos = new String[words.length];
+                int sentenceBegin = text.length();
+                for (int i = 0; i < words.length; i++) {
+                    int tag = random.nextInt(POS_TAGS.length);
+                    int begin = text.length();
+                    text.append(words[i]).append(' ');
+                    Token token = new Token(jCas, begin, begin + words[i].length());
+                    POS pos = new POS(jCas, begin, begin + words[i].length());
+                    pos.setPosValue(POS_TAGS[tag]);
+                    pos.addToIndexes();
+                    token.setPos(pos);
+                    token.addToIndexes();
+                    // tokens without a universal POS fall back to their POS, which matches no rule
+                    if (random.nextInt(4) > 0) {
+                        UniversalPOS universal = new UniversalPOS(jCas, begin, begin + words[i].length());
+                        universal.setPosValue(UNIVERSAL_POS_TAGS[tag]);
+                        universal.addToIndexes();
+                        universalPos[i] = UNIVERSAL_POS_TAGS[tag];
+                    } else {
+                        universalPos[i] = POS_TAGS[tag];
+                    }
+                }
+                new Sentence(jCas, sentenceBegin, text.length() - 1).addToIndexes();
+                sentences.add(words);
+                sentencesPos.add(universalPos);
+            }
+            jCas.setDocumentText(text.toString());
+            parser.process(jCas);
+
+            Map<Token, Integer> tokenIndices = new HashMap<>();
+            Map<Token, Token> governors = new HashMap<>();
+            for (Dependency dependency : JCasUtil.select(jCas, Dependency.class)) {
+                governors.put(dependency.getDependent(), dependency.getGovernor());
+            }
+            int s = 0;
+            for (Sentence sentence : JCasUtil.select(jCas, Sentence.class)) {
+                List<Token> tokens = JCasUtil.selectCovered(Token.class, sentence);
+                for (int i = 0; i < tokens.size(); i++) {
+                    tokenIndices.put(tokens.get(i), i);
+                }
+                int[] expected = expectedHeads(RANKINGS.get(sentence.getBegin()), sentencesPos.get(s),
+                        MWEDataTest.expectedMemberships(sentences.get(s), expressions, 0.5, 4, 0.5), rules);
+                for (int i = 0; i < tokens.size(); i++) {
+                    assertEquals(expected[i], tokenIndices.get(governors.get(tokens.get(i))).intValue());
+                }
+                s++;
+            }
+            assertEquals(text.toString().split(" ").length, governors.size());
+        }
+        parser.destroy();
+    }
+
+    @Test
+    public void headsMatchQuadraticSearch() throws Exception {
+        checkHeads(false);
+    }
+
+    @Test
+    public void headsMatchQuadraticSearchWithUniversalRules() throws Exception {
+        checkHeads(true);
+    }
+}
@@ -0,0 +1,175 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import org.apache.commons.lang.StringUtils;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class MWEDataTest {
+    static final String[] WORDS = {"a", "b", "c", "d", "e"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a file in DRUID data format with random expressions of one to five of the {@link #WORDS}.
+     *
+     * @return the score of each expression, keyed by its words joined with spaces
+     */
+    static Map<String, Double> writeDruidFile(Random random, Path file) throws Exception {
+        Map<String, Double> expressions = new LinkedHashMap<>();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 60; i++) {
+                String[] words = randomWords(random, 1 + random.nextInt(5));
+                String expression = StringUtils.join(words, " ");
+                if (expressions.containsKey(expression)) continue;
+                double score = random.nextInt(100) / 100.0;
+                expressions.put(expression, score);
+                writer.write(words.length + "\t" + expression + "\t" + score);
+                writer.newLine();
+            }
+        }
+        return expressions;
+    }
+
+    static String[] randomWords(Random random, int length) {
+        String[] words = new String[length];
+        for (int i = 0; i < length; i++) {
+            words[i] = WORDS[random.nextInt(WORDS.length)];
+        }
+        return words;
+    }
+
+    /**
+     * The memberships as they were computed before the expressions were kept in a trie: every window of 2 to
+     * mweMaxTokens words whose joined words have a score of at least mweMinScore is a new expression.
+     */
+    static List<Set<Integer>> expectedMemberships(String[] words, Map<String, Double> expressions, double minScore,
+                                                  int mweMaxTokens, double mweMinScore) {
+        List<Set<Integer>> memberships = new ArrayList<>();
+        for (int i = 0; i < words.length; i++) {
+            memberships.add(new HashSet<Integer>());
+        }
+        int mweId = 0;
+        for (int windowSize = 2; windowSize <= mweMaxTokens; windowSize++) {
+            for (int i = 0; i + windowSize <= words.length; i++) {
+                Double score = expressions.get(StringUtils.join(words, " ", i, i + windowSize));
+                if (score != null && score >= minScore && score >= mweMinScore) {
+                    for (int j = 0; j < windowSize; j++) {
+                        memberships.get(i + j).add(mweId);
+                    }
+                    mweId++;
+                }
+            }
+        }
+        return memberships;
+    }
+
+    static List<Token> createTokens(JCas jCas, String[] words) {
+        jCas.reset();
+        jCas.setDocumentText(StringUtils.join(words, " "));
+        List<Token> tokens = new ArrayList<>();
+        int begin = 0;
+        for (String word : words) {
+            tokens.add(new Token(jCas, begin, begin + word.length()));
+            begin += word.length() + 1;
+        }
+        return tokens;
+    }
+
+    @Test
+    public void getScoreMatchesDruidFile() throws Exception {
+        Random random = new Random(1);
+        Path file = folder.newFile().toPath();
+        Path binaryFile = folder.newFile().toPath();
+        Map<String, Double> expressions = writeDruidFile(random, file);
+        MWEData.convert(file, binaryFile, 0.3);
+
+        for (MWEData data : new MWEData[]{new MWEData(file, 0.3), new MWEData(binaryFile, 0.3)}) {
+            for (int run = 0; run < 2000; run++) {
+                String[] words = randomWords(random, 1 + random.nextInt(5));
+                Double score = expressions.get(StringUtils.join(words, " "));
+                double expected = score != null && score >= 0.3 && words.length > 1 ? score : 0.0;
+                assertEquals(StringUtils.join(words, " "), expected, data.getScore(words), 0);
+            }
+        }
+    }
+
+    @Test
+    public void createMembershipsMatchesWindowScan() throws Exception {
+        Random random = new Random(2);
+        Path file = folder.newFile().toPath();
+        Path binaryFile = folder.newFile().toPath();
+        Map<String, Double> expressions = writeDruidFile(random, file);
+        MWEData.convert(file, binaryFile, 0.3);
+        JCas jCas = JCasFactory.createJCas();
+
+        for (MWEData data : new MWEData[]{new MWEData(file, 0.3), new MWEData(binaryFile, 0.3)}) {
+            for (int run = 0; run < 500; run++) {
+                String[] words = randomWords(random, random.nextInt(30));
+                List<Token> tokens = createTokens(jCas, words);
+                for (int mweMaxTokens = 2; mweMaxTokens <= 5; mweMaxTokens++) {
+                    for (double mweMinScore : new double[]{0.3, 0.6}) {
+                        List<Set<Integer>> expected = expectedMemberships(words, expressions, 0.3, mweMaxTokens,
+                                mweMinScore);
+                        MWEMemberships memberships = data.createMemberships(tokens, mweMaxTokens, mweMinScore);
+                        for (int i = 0; i < words.length; i++) {
+                            assertEquals(!expected.get(i).isEmpty(), memberships.isMember(i));
+                            // the memberships are exact for tokens at most mweMaxTokens apart
+                            for (int j = Math.max(0, i - mweMaxTokens); j <= Math.min(words.length - 1, i +
+                                    mweMaxTokens); j++) {
+                                assertEquals(!Collections.disjoint(expected.get(i), expected.get(j)), memberships
+                                        .shareExpression(i, j));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package de.tudarmstadt.informatik.lt.sogaardparser;
+
+/*
+ * #%L
+ * JUnsupervisedParser
+ * %%
+ * Copyright (C) 2016 Tim Feuerbach
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RankingTest {
+    // ties, both zeros, NaN and infinities are drawn often
+    private static final double[] SPECIAL_SCORES = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, 0.5, 0.25};
+
+    private static double[] randomScores(Random random, int length) {
+        double[] scores = new double[length];
+        for (int i = 0; i < length; i++) {
+            scores[i] = random.nextBoolean() ? SPECIAL_SCORES[random.nextInt(SPECIAL_SCORES.length)] : random
+                    .nextDouble() - 0.5;
+        }
+        return scores;
+    }
+
+    /**
+     * The ranking as it was computed before it was kept in primitive arrays: a stable sort of the tokens in sentence
+     * order by descending score.
+     */
+    private static int[] expectedOrder(final double[] scores, final int offset, int length) {
+        Integer[] tokens = new Integer[length];
+        for (int i = 0; i < length; i++) {
+            tokens[i] = i;
+        }
+        Arrays.sort(tokens, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer token1, Integer token2) {
+                return -1 * Double.compare(scores[offset + token1], scores[offset + token2]);
+            }
+        });
+
+        int[] order = new int[length];
+        for (int i = 0; i < length; i++) {
+            order[i] = tokens[i];
+        }
+        return order;
+    }
+
+    @Test
+    public void byScoreMatchesStableSort() {
+        Random random = new Random(1);
+        for (int run = 0; run < 2000; run++) {
+            double[] scores = randomScores(random, random.nextInt(200));
+            Ranking ranking = Ranking.byScore(scores);
+            assertArrayEquals(Arrays.toString(scores), expectedOrder(scores, 0, scores.length), ranking.getOrder());
+            assertEquals(scores.length, ranking.size());
+            for (int token = 0; token < scores.length; token++) {
+                assertEquals(Double.doubleToRawLongBits(scores[token]), Double.doubleToRawLongBits(ranking.getScore(
+                        token)));
+            }
+        }
+    }
+
+    @Test
+    public void byScoreWithOffsetMatchesStableSort() {
+        Random random = new Random(2);
+        for (int run = 0; run < 2000; run++) {
+            double[] scores = randomScores(random, random.nextInt(200));
+            int offset = scores.length == 0 ? 0 : random.nextInt(scores.length);
+            int length = random.nextInt(scores.length - offset + 1);
+            Ranking ranking = Ranking.byScore(scores, offset, length);
+            assertArrayEquals(expectedOrder(scores, offset, length), ranking.getOrder());
+            assertArrayEquals(Arrays.copyOfRange(scores, offset, offset + length), ranking.getScores(), 0);
+        }
+    }
+}